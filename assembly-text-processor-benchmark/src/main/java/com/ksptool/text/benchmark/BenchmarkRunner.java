@@ -0,0 +1,38 @@
+package com.ksptool.text.benchmark;
+
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * 基准测试入口。
+ * <p>
+ * 接受与JMH相同的命令行参数，并总是启用GC分析器，结果中同时给出吞吐量与每次操作的分配字节数
+ * （{@code gc.alloc.rate.norm}），便于发现版本之间的性能回退。
+ *
+ * <h3>用法:</h3>
+ * <pre>{@code
+ * java -jar benchmarks.jar                       # 全部基准
+ * java -jar benchmarks.jar RenderBenchmark -p xssFilter=true
+ * java -jar benchmarks.jar StrBenchmark -rf json -rff str.json
+ * }</pre>
+ */
+public final class BenchmarkRunner {
+
+
+    private BenchmarkRunner() {
+        throw new UnsupportedOperationException("工具类不允许实例化");
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+
+}
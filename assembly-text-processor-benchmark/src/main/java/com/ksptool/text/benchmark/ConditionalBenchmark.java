@@ -0,0 +1,67 @@
+package com.ksptool.text.benchmark;
+
+
+import com.ksptool.text.CompiledPrompt;
+import com.ksptool.text.PreparedPrompt;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 嵌套条件块的编译与渲染：嵌套深度、条件是否满足与XSS过滤开关。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConditionalBenchmark {
+
+
+    @Param({"1", "8", "64", "512"})
+    public int depth;
+
+    // 条件是否全部满足，不满足时只有最外层条件被判断
+    @Param({"true", "false"})
+    public boolean satisfied;
+
+    @Param({"true", "false"})
+    public boolean xssFilter;
+
+    private String template;
+
+    private PreparedPrompt prompt;
+
+    @Setup
+    public void setup() {
+        template = Templates.nested(depth);
+        prompt = PreparedPrompt.prepare(template)
+                .setParameters(Templates.parameters())
+                .enableXssFilter(xssFilter);
+        for (int i = 0; i < depth; i++) {
+            prompt.setParameter("c" + i, satisfied ? "1" : "");
+        }
+    }
+
+    @Benchmark
+    public String execute() {
+        return prompt.execute();
+    }
+
+    @Benchmark
+    public CompiledPrompt compile() {
+        return CompiledPrompt.compile(template);
+    }
+
+}
@@ -0,0 +1,88 @@
+package com.ksptool.text.benchmark;
+
+
+import com.ksptool.text.EscapeCache;
+import com.ksptool.text.PreparedPrompt;
+import com.ksptool.text.PromptEscaper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 转义结果缓存：参数值长度、需要转义的值所占比例，与直接使用XSS过滤器对比。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EscapeCacheBenchmark {
+
+
+    // 不同参数值的数量，小于缓存容量，预热后全部命中
+    private static final int DISTINCT_VALUES = 1024;
+
+    @Param({"32", "256", "2048"})
+    public int valueLength;
+
+    // 需要转义的值所占的百分比，其余的值不含特殊字符
+    @Param({"0", "50", "100"})
+    public int dirtyPercent;
+
+    private PreparedPrompt direct;
+
+    private PreparedPrompt cached;
+
+    private String[] values;
+
+    private int next;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        values = new String[DISTINCT_VALUES];
+        for (int i = 0; i < values.length; i++) {
+            String unit = random.nextInt(100) < dirtyPercent ? "<b>Tom & \"Jerry\"</b> " : "Tom and Jerry 的订单 ";
+            StringBuilder value = new StringBuilder(valueLength + 8);
+            while (value.length() < valueLength) {
+                value.append(unit);
+            }
+            values[i] = value.substring(0, valueLength) + i;
+        }
+        String template = "用户: #{name}\n标题: #{title}";
+        direct = PreparedPrompt.prepare(template);
+        cached = PreparedPrompt.prepare(template)
+                .setEscapeCache(new EscapeCache(PromptEscaper.HTML, DISTINCT_VALUES * 4, 64L * 1024 * 1024));
+    }
+
+    @Benchmark
+    public String direct() {
+        return render(direct);
+    }
+
+    @Benchmark
+    public String cached() {
+        return render(cached);
+    }
+
+    private String render(PreparedPrompt prompt) {
+        int index = next;
+        next = (index + 1) & (DISTINCT_VALUES - 1);
+        return prompt.setParameter("name", values[index])
+                .setParameter("title", values[(index * 31) & (DISTINCT_VALUES - 1)])
+                .execute();
+    }
+
+}
@@ -0,0 +1,66 @@
+package com.ksptool.text.benchmark;
+
+
+import com.ksptool.text.PreparedPrompt;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 嵌套解析：参数值引用其他参数形成的依赖链，以及每个参数值引用多个参数的扇出。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NestedChainBenchmark {
+
+
+    // 依赖链的长度
+    @Param({"1", "16", "256"})
+    public int chainLength;
+
+    // 链上每个参数值额外引用的叶子参数数量
+    @Param({"0", "8"})
+    public int fanOut;
+
+    @Param({"true", "false"})
+    public boolean xssFilter;
+
+    private PreparedPrompt prompt;
+
+    @Setup
+    public void setup() {
+        prompt = PreparedPrompt.prepare("开始 #{n0} 结束").enableXssFilter(xssFilter);
+        for (int i = 0; i < chainLength; i++) {
+            StringBuilder value = new StringBuilder("<").append(i).append(">");
+            for (int j = 0; j < fanOut; j++) {
+                value.append(" #{leaf").append(j).append("}");
+            }
+            value.append(" #{n").append(i + 1).append("}");
+            prompt.setParameter("n" + i, value.toString());
+        }
+        prompt.setParameter("n" + chainLength, "末端");
+        for (int j = 0; j < fanOut; j++) {
+            prompt.setParameter("leaf" + j, "叶子&" + j);
+        }
+    }
+
+    @Benchmark
+    public String executeNested() {
+        return prompt.executeNested();
+    }
+
+}
@@ -0,0 +1,89 @@
+package com.ksptool.text.benchmark;
+
+
+import com.ksptool.text.CompiledPrompt;
+import com.ksptool.text.PreparedPrompt;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 平铺模板的编译与渲染：模板大小、占位符密度与XSS过滤开关。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RenderBenchmark {
+
+
+    // 模板的字符数，1KB到1MB
+    @Param({"1024", "65536", "1048576"})
+    public int templateSize;
+
+    // 每1024个字符中的占位符数量
+    @Param({"4", "64"})
+    public int placeholdersPerKb;
+
+    @Param({"true", "false"})
+    public boolean xssFilter;
+
+    private String template;
+
+    private Map<String, String> parameters;
+
+    private PreparedPrompt prompt;
+
+    private CompiledPrompt compiled;
+
+    @Setup
+    public void setup() {
+        template = Templates.flat(templateSize, placeholdersPerKb);
+        parameters = Templates.parameters();
+        prompt = PreparedPrompt.prepare(template)
+                .setParameters(parameters)
+                .enableXssFilter(xssFilter);
+        compiled = PreparedPrompt.compile(template);
+    }
+
+    /**
+     * 复用同一个PreparedPrompt反复渲染
+     */
+    @Benchmark
+    public String execute() {
+        return prompt.execute();
+    }
+
+    /**
+     * 每次渲染创建新的绑定，模拟共享编译结果的服务端用法
+     */
+    @Benchmark
+    public String bindAndExecute() {
+        return compiled.bind()
+                .setParameters(parameters)
+                .enableXssFilter(xssFilter)
+                .execute();
+    }
+
+    /**
+     * 不经过缓存编译模板
+     */
+    @Benchmark
+    public CompiledPrompt compile() {
+        return CompiledPrompt.compile(template);
+    }
+
+}
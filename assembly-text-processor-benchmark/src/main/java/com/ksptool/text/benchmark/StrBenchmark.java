@@ -0,0 +1,176 @@
+package com.ksptool.text.benchmark;
+
+
+import com.ksptool.text.Str;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Str的校验（isXxx）、解析（parseXxx）与安全转换（toXxx）方法，分别使用合法与非法的输入。
+ * <p>
+ * 非法输入下parseXxx会抛出异常，基准方法捕获异常后返回null，测量的正是异常路径的开销。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StrBenchmark {
+
+
+    @Param({"valid", "invalid"})
+    public String input;
+
+    private String integer;
+
+    private String longValue;
+
+    private String doubleValue;
+
+    private String date;
+
+    private String dateTime;
+
+    private String time;
+
+    @Setup
+    public void setup() {
+        boolean valid = "valid".equals(input);
+        integer = valid ? "1234567" : "12345x7";
+        longValue = valid ? "1234567890123" : "1234567890123456789012";
+        doubleValue = valid ? "-12345.6789e-3" : "12345.67.89";
+        date = valid ? "2024-02-29" : "2023-02-29x";
+        dateTime = valid ? "2024-02-29 13:45:30" : "2024-02-29 25:45:30";
+        time = valid ? "13:45:30" : "13:60:30";
+    }
+
+    @Benchmark
+    public boolean isInteger() {
+        return Str.isInteger(integer);
+    }
+
+    @Benchmark
+    public boolean isLong() {
+        return Str.isLong(longValue);
+    }
+
+    @Benchmark
+    public boolean isDouble() {
+        return Str.isDouble(doubleValue);
+    }
+
+    @Benchmark
+    public boolean isDate() {
+        return Str.isDate(date);
+    }
+
+    @Benchmark
+    public boolean isDateTime() {
+        return Str.isDateTime(dateTime);
+    }
+
+    @Benchmark
+    public boolean isTime() {
+        return Str.isTime(time);
+    }
+
+    @Benchmark
+    public Integer parseInteger() {
+        try {
+            return Str.parseInteger(integer);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    @Benchmark
+    public Long parseLong() {
+        try {
+            return Str.parseLong(longValue);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    @Benchmark
+    public Double parseDouble() {
+        try {
+            return Str.parseDouble(doubleValue);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    @Benchmark
+    public LocalDate parseLocalDate() {
+        try {
+            return Str.parseLocalDate(date);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    @Benchmark
+    public LocalDateTime parseLocalDateTime() {
+        try {
+            return Str.parseLocalDateTime(dateTime);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    @Benchmark
+    public LocalTime parseLocalTime() {
+        try {
+            return Str.parseLocalTime(time);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    @Benchmark
+    public Integer toInteger() {
+        return Str.toInteger(integer, null);
+    }
+
+    @Benchmark
+    public Long toLong() {
+        return Str.toLong(longValue, null);
+    }
+
+    @Benchmark
+    public Double toDouble() {
+        return Str.toDouble(doubleValue, null);
+    }
+
+    @Benchmark
+    public LocalDate toLocalDate() {
+        return Str.toLocalDate(date, null);
+    }
+
+    @Benchmark
+    public LocalDateTime toLocalDateTime() {
+        return Str.toLocalDateTime(dateTime, null);
+    }
+
+    @Benchmark
+    public LocalTime toLocalTime() {
+        return Str.toLocalTime(time, null);
+    }
+
+}
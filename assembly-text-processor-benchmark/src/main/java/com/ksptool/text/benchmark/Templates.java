@@ -0,0 +1,75 @@
+package com.ksptool.text.benchmark;
+
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 生成基准测试使用的模板与参数。
+ */
+final class Templates {
+
+
+    // 模板中不同参数名称的数量
+    static final int PARAMETER_COUNT = 32;
+
+    // 参数值，包含需要XSS过滤转义的字符
+    private static final String VALUE = "<b>Tom & \"Jerry\"</b> 的订单";
+
+    private Templates() {
+        throw new UnsupportedOperationException("工具类不允许实例化");
+    }
+
+    /**
+     * 生成指定大小的模板，占位符按给定密度均匀分布
+     *
+     * @param size              模板的字符数
+     * @param placeholdersPerKb 每1024个字符中的占位符数量
+     * @return 模板文本
+     */
+    static String flat(int size, int placeholdersPerKb) {
+        int spacing = Math.max(1, 1024 / placeholdersPerKb);
+        StringBuilder template = new StringBuilder(size + 16);
+        int index = 0;
+        while (template.length() < size) {
+            String placeholder = "#{p" + (index++ % PARAMETER_COUNT) + "}";
+            int filler = Math.max(0, Math.min(spacing - placeholder.length(), size - template.length()));
+            for (int i = 0; i < filler; i++) {
+                template.append((char) ('a' + i % 26));
+            }
+            template.append(placeholder);
+        }
+        return template.toString();
+    }
+
+    /**
+     * 生成嵌套的条件块模板，每一层都包含文本与一个占位符
+     *
+     * @param depth 条件块的嵌套深度
+     * @return 模板文本
+     */
+    static String nested(int depth) {
+        StringBuilder template = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            template.append("#{?c").append(i).append("}第").append(i).append("层: #{p").append(i % PARAMETER_COUNT).append("}\n");
+        }
+        for (int i = depth - 1; i >= 0; i--) {
+            template.append("#{?c").append(i).append("}");
+        }
+        return template.toString();
+    }
+
+    /**
+     * 生成flat与nested模板使用的参数
+     *
+     * @return 参数映射
+     */
+    static Map<String, String> parameters() {
+        Map<String, String> parameters = new HashMap<>();
+        for (int i = 0; i < PARAMETER_COUNT; i++) {
+            parameters.put("p" + i, VALUE + i);
+        }
+        return parameters;
+    }
+
+}
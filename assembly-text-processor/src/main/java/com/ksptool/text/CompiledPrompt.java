@@ -0,0 +1,1533 @@
+package com.ksptool.text;
+
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * 预编译的prompt模板。
+ * <p>
+ * 模板只在 {@link #compile(String)} 时解析一次，被拆分为文本段、占位符段与条件段组成的程序。
+ * 之后每次渲染都只是对这些段的一次线性遍历，不再使用正则，也不再产生中间字符串。
+ * <p>
+ * 实例不可变，可以安全地缓存并在多个线程之间共享；每次渲染的参数由 {@link #bind()} 创建的
+ * {@link PromptBinding} 持有。
+ * <p>
+ * 编译时模板中每个不同的占位符名称与条件名称都会分配一个整数槽位，渲染时按槽位从数组中取值，
+ * 不再对参数名进行哈希查找。热点代码可以通过 {@link #slotOf(String)} 预先解析槽位，
+ * 再使用 {@link PromptBinding#set(int, String)} 直接按槽位绑定参数。
+ * <p>
+ * 文本段在编译时同时预先编码为UTF-8字节，按字节输出时只需对参数值进行编码。
+ * <p>
+ * 占位符可以通过 {@code #{name|json}}、{@code #{name|raw}} 等修饰符指定转义策略，
+ * 修饰符在编译时解析为 {@link PromptEscaper} 实例，见 {@link PromptEscaper}。
+ * <p>
+ * {@code #{*items}...#{*items}} 为循环块，块内容对 {@link PromptBinding#setItems(String, Iterable)}
+ * 设置的每个元素渲染一次，块内的参数优先取元素中的同名值，元素中没有时取模板的参数值。
+ * 循环块直接写出到输出目标，不会为元素拼接中间字符串。
+ * <p>
+ * 对于渲染最频繁的模板，可以通过 {@link #specializeAfter(int)} 开启专用渲染器，见该方法的说明。
+ *
+ * <h3>基本用法:</h3>
+ * <pre>{@code
+ * CompiledPrompt compiled = PreparedPrompt.compile("你好, #{name}!");
+ * String result = compiled.bind().setParameter("name", "张三").execute();
+ * // result: "你好, 张三!"
+ * }</pre>
+ *
+ * @see PreparedPrompt#compile(String)
+ */
+public final class CompiledPrompt {
+
+
+    // 块标记（条件块与循环块）的前缀长度，如#{?与#{*
+    private static final int BLOCK_PREFIX_LENGTH = 3;
+
+    // 条件块标记的类型字符
+    private static final char CONDITION_KIND = '?';
+
+    // 循环块标记的类型字符
+    private static final char LOOP_KIND = '*';
+
+    // 包含指令的前缀（位于占位符内容的开头）
+    private static final String INCLUDE_PREFIX = ">";
+
+    // 专用渲染器的方法类型: (values, bound, defaultEscaper, sink)void
+    private static final MethodType RENDERER_TYPE =
+            MethodType.methodType(void.class, String[].class, boolean[].class, PromptEscaper.class, PromptSink.class);
+
+    private static final MethodHandle WRITE_LITERAL;
+
+    private static final MethodHandle WRITE_PLACEHOLDER;
+
+    private static final MethodHandle TEST_CONDITION;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            WRITE_LITERAL = lookup.findStatic(CompiledPrompt.class, "writeLiteral",
+                    RENDERER_TYPE.insertParameterTypes(0, String.class, byte[].class));
+            WRITE_PLACEHOLDER = lookup.findStatic(CompiledPrompt.class, "writePlaceholder",
+                    RENDERER_TYPE.insertParameterTypes(0, int.class, PromptEscaper.class, String.class));
+            TEST_CONDITION = lookup.findStatic(CompiledPrompt.class, "testCondition",
+                    RENDERER_TYPE.changeReturnType(boolean.class).insertParameterTypes(0, int.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    // 原始prompt模板
+    private final String template;
+
+    // 编译后的段程序
+    private final Segment[] segments;
+
+    // 顶层（不在条件块中）的占位符与循环块引用的槽位，严格模式检查时使用
+    private final int[] requiredSlots;
+
+    // 顶层的条件段
+    private final Conditional[] conditionals;
+
+    // 槽位对应的参数名称
+    private final String[] slotNames;
+
+    // 参数名称到槽位的映射
+    private final Map<String, Integer> slotIndex;
+
+    // 生成专用渲染器之前需要解释执行的次数，未开启时为-1
+    private final int specializeThreshold;
+
+    // 已解释执行的次数，未开启专用渲染器时为null
+    private final AtomicInteger interpretedRenders;
+
+    // 专用渲染器，尚未生成时为null
+    private volatile MethodHandle specialized;
+
+    // 模板包含无法生成的段（循环块），不再尝试生成
+    private volatile boolean unspecializable;
+
+    // 渲染监听器，未设置时为null
+    private final RenderListener renderListener;
+
+    private CompiledPrompt(String template, Segment[] segments, Map<String, Integer> slotIndex) {
+        this.template = template;
+        this.segments = segments;
+        this.requiredSlots = requiredSlotsOf(segments);
+        this.conditionals = conditionalsOf(segments);
+        this.slotIndex = slotIndex;
+        this.slotNames = slotIndex.keySet().toArray(new String[0]);
+        this.specializeThreshold = -1;
+        this.interpretedRenders = null;
+        this.renderListener = null;
+    }
+
+    /**
+     * 复制编译结果并设置专用渲染器与渲染监听器，段程序与槽位映射都是不可变的，直接共享
+     */
+    private CompiledPrompt(CompiledPrompt source, int specializeThreshold, RenderListener renderListener) {
+        this.template = source.template;
+        this.segments = source.segments;
+        this.requiredSlots = source.requiredSlots;
+        this.conditionals = source.conditionals;
+        this.slotIndex = source.slotIndex;
+        this.slotNames = source.slotNames;
+        this.specializeThreshold = specializeThreshold;
+        this.interpretedRenders = specializeThreshold < 0 ? null : new AtomicInteger();
+        this.specialized = source.specialized;
+        this.unspecializable = source.unspecializable;
+        this.renderListener = renderListener;
+    }
+
+    /**
+     * 编译prompt模板
+     *
+     * @param template 包含#{xxx}格式占位符的prompt模板
+     * @return 编译后的模板
+     */
+    public static CompiledPrompt compile(String template) {
+        return compile(template, null);
+    }
+
+    /**
+     * 编译prompt模板，并将 {@code #{>name}} 形式的包含指令替换为对应的模板片段
+     * <p>
+     * 片段已编译的段被直接拼入结果，片段中的参数按名称合并为本模板的槽位。
+     *
+     * @param template 包含#{xxx}格式占位符的prompt模板
+     * @param includes 按名称查找模板片段，为null时包含指令按普通占位符处理
+     * @return 编译后的模板
+     */
+    static CompiledPrompt compile(String template, Function<String, CompiledPrompt> includes) {
+        if (template == null) {
+            throw new IllegalArgumentException("Prompt模板不能为null");
+        }
+        Parser parser = new Parser(template, includes);
+        List<Segment> segments = new ArrayList<>();
+        parser.parseBlock(0, template.length(), 0, segments);
+        return new CompiledPrompt(template, segments.toArray(new Segment[0]), parser.slots);
+    }
+
+    /**
+     * 获取原始模板
+     *
+     * @return 原始prompt模板
+     */
+    public String getTemplate() {
+        return template;
+    }
+
+    /**
+     * 获取模板中的参数名称（包括占位符与条件名称），数组下标即为参数的槽位
+     *
+     * @return 参数名称数组的副本
+     */
+    public String[] getParameterNames() {
+        return slotNames.clone();
+    }
+
+    /**
+     * 获取参数在模板中的槽位
+     *
+     * @param name 参数名称
+     * @return 参数的槽位，如果模板中没有该参数则返回-1
+     */
+    public int slotOf(String name) {
+        Integer slot = slotIndex.get(name);
+        return slot == null ? -1 : slot;
+    }
+
+    /**
+     * 获取槽位对应的参数名称
+     *
+     * @param slot 参数槽位
+     * @return 参数名称
+     */
+    public String getParameterName(int slot) {
+        return slotNames[slot];
+    }
+
+    /**
+     * 获取模板中的槽位数量
+     *
+     * @return 槽位数量
+     */
+    public int getSlotCount() {
+        return slotNames.length;
+    }
+
+    /**
+     * 创建一个增量渲染会话，适用于反复渲染同一模板且每次只修改少数参数的场景
+     *
+     * @return 新的RenderSession实例
+     * @see RenderSession
+     */
+    public RenderSession session() {
+        return new RenderSession(this);
+    }
+
+    /**
+     * 获取开启了专用渲染器的副本：副本被解释执行指定次数后，为它生成一个专用的渲染器
+     * <p>
+     * 专用渲染器是由段程序生成的方法句柄链：文本段的文本与预编码字节、占位符的槽位与转义器都作为常量绑定在句柄中，
+     * 条件段生成为分支，整条链按二分方式组合，嵌套深度只与段数的对数成正比。
+     * 调用频繁的方法句柄会被JVM定制化并编译，渲染过程因此可以被内联为一段直线式的写出代码，
+     * 不再逐段进行类型判断与分派。
+     * <p>
+     * 生成本身有一定开销，因此只应对少数热点模板开启；未达到次数的冷模板继续使用解释执行。
+     * 输出与解释执行完全相同。设置了延迟参数或循环块元素的渲染、以及包含循环块的模板始终解释执行。
+     * <p>
+     * 当前实例保持不变：编译结果可能被共享（例如来自 {@link PromptCache}），开启专用渲染器只影响返回的副本，
+     * 副本与当前实例共享段程序，不会重新编译。副本同样是线程安全的，应当像当前实例一样长期持有并复用。
+     *
+     * @param renders 生成专用渲染器之前解释执行的次数，为0时在下一次渲染时生成
+     * @return 开启了专用渲染器的新CompiledPrompt实例
+     */
+    public CompiledPrompt specializeAfter(int renders) {
+        if (renders < 0) {
+            throw new IllegalArgumentException("解释执行次数不能小于0");
+        }
+        return new CompiledPrompt(this, renders, renderListener);
+    }
+
+    /**
+     * 判断是否已经生成专用渲染器
+     *
+     * @return 如果已经生成专用渲染器则返回true
+     */
+    public boolean isSpecialized() {
+        return specialized != null;
+    }
+
+    /**
+     * 获取设置了渲染监听器的副本，副本的每次渲染完成后通知监听器
+     * <p>
+     * 监听器作用于副本的 {@link PromptBinding} 的所有渲染方法（包括批量渲染），增量渲染会话 {@link RenderSession} 不通知监听器。
+     * 当前实例保持不变，与 {@link #specializeAfter(int)} 相同，副本共享段程序并保留专用渲染器的设置，
+     * 因此同一个模板可以在不同的组件中各自设置监听器，互不影响。
+     * 未设置监听器时渲染路径上只多一次字段读取，不会计时也不会统计输出；
+     * 设置后每次渲染额外读取时钟，并在每个参数值转义前后各读取一次时钟。
+     *
+     * @param listener 渲染监听器，为null时返回不通知监听器的副本
+     * @return 设置了渲染监听器的新CompiledPrompt实例
+     * @see RenderMetrics
+     * @see PromptCache#PromptCache(int, long, RenderListener)
+     */
+    public CompiledPrompt withRenderListener(RenderListener listener) {
+        return new CompiledPrompt(this, specializeThreshold, listener);
+    }
+
+    /**
+     * 获取渲染监听器
+     *
+     * @return 渲染监听器，未设置时返回null
+     */
+    public RenderListener getRenderListener() {
+        return renderListener;
+    }
+
+    /**
+     * 在本模板之后拼接另一个已编译的模板，使用指定的分隔符
+     *
+     * @param separator 分隔符
+     * @param other     要拼接的模板
+     * @return 拼接后的新模板
+     * @see #concat(CharSequence, CompiledPrompt...)
+     */
+    public CompiledPrompt union(CharSequence separator, CompiledPrompt other) {
+        return concat(separator, this, other);
+    }
+
+    /**
+     * 将多个已编译的模板按顺序拼接为一个新模板，相邻模板之间插入分隔符
+     * <p>
+     * 拼接直接组合各模板已编译的段，分隔符作为一个文本段插入，不会重新解析任何模板文本；
+     * 各模板中的参数按名称合并为新模板的槽位，同名参数共享同一个槽位。
+     * 每个模板的条件块与占位符在各自的范围内解析，不会跨越拼接边界，
+     * 这与把模板文本拼接后重新编译的结果在极少数情况下不同（例如一个模板中未闭合的条件标记被另一个模板闭合）。
+     * 新模板的 {@link #getTemplate()} 为拼接后的模板文本。
+     *
+     * @param separator 分隔符，为null时不插入分隔符
+     * @param parts     要拼接的模板
+     * @return 拼接后的新模板
+     */
+    public static CompiledPrompt concat(CharSequence separator, CompiledPrompt... parts) {
+        if (parts == null) {
+            throw new IllegalArgumentException("要拼接的模板不能为null");
+        }
+        String separatorText = separator == null ? "" : separator.toString();
+        Literal separatorLiteral = separatorText.isEmpty() ? null : new Literal(separatorText);
+        StringBuilder template = new StringBuilder();
+        List<Segment> segments = new ArrayList<>();
+        Map<String, Integer> slotIndex = new LinkedHashMap<>();
+
+        for (int i = 0; i < parts.length; i++) {
+            CompiledPrompt part = parts[i];
+            if (part == null) {
+                throw new IllegalArgumentException("要拼接的模板不能为null");
+            }
+            if (i > 0) {
+                template.append(separatorText);
+                if (separatorLiteral != null) {
+                    segments.add(separatorLiteral);
+                }
+            }
+            template.append(part.template);
+
+            // 槽位映射为恒等映射时（例如第一个模板）直接复用原有的段
+            splice(part, segments, slotIndex);
+        }
+        return new CompiledPrompt(template.toString(), segments.toArray(new Segment[0]), slotIndex);
+    }
+
+    /**
+     * 创建一个新的参数绑定，用于单次渲染
+     * <p>
+     * 编译后的模板可以在线程之间共享，而绑定对象只属于创建它的调用方。
+     *
+     * @return 新的PromptBinding实例
+     */
+    public PromptBinding bind() {
+        return new PromptBinding(this);
+    }
+
+    /**
+     * 使用给定参数渲染模板（默认严格模式，启用XSS过滤）
+     *
+     * @param parameters 参数映射
+     * @return 替换后的prompt
+     * @throws IllegalStateException 如果存在未设置的参数
+     */
+    public String execute(Map<String, String> parameters) {
+        return execute(parameters, true);
+    }
+
+    /**
+     * 使用给定参数渲染模板（启用XSS过滤）
+     *
+     * @param parameters 参数映射
+     * @param strictMode 严格模式，如果为true则在有未设置的参数时抛出异常
+     * @return 替换后的prompt
+     * @throws IllegalStateException 如果strictMode为true且存在未设置的参数
+     */
+    public String execute(Map<String, String> parameters, boolean strictMode) {
+        if (parameters == null) {
+            throw new IllegalArgumentException("参数映射不能为null");
+        }
+        return bind().setParameters(parameters).execute(strictMode);
+    }
+
+    /**
+     * 检查在给定参数下是否存在未设置的参数
+     *
+     * @param parameters 参数映射
+     * @return 未设置的参数列表，如果所有参数都已设置则返回空数组
+     */
+    public String[] getUnsetParameters(Map<String, String> parameters) {
+        if (parameters == null) {
+            throw new IllegalArgumentException("参数映射不能为null");
+        }
+        return bind().setParameters(parameters).getUnsetParameters();
+    }
+
+    /**
+     * 收集未设置的参数
+     *
+     * @param values 按槽位存放的参数值
+     * @param bound  按槽位标记参数是否已设置
+     * @return 未设置的参数列表
+     */
+    String[] getUnsetParameters(String[] values, boolean[] bound) {
+        return getUnsetParameters(values, bound, null);
+    }
+
+    /**
+     * 收集未设置的参数，检查过程中到达的条件所引用的延迟参数会被求值
+     *
+     * @param values    按槽位存放的参数值
+     * @param bound     按槽位标记参数是否已设置
+     * @param suppliers 按槽位存放的延迟参数，没有延迟参数时为null
+     * @return 未设置的参数列表
+     */
+    String[] getUnsetParameters(String[] values, boolean[] bound, Supplier<? extends CharSequence>[] suppliers) {
+        if (suppliers != null) {
+            values = values.clone();
+            suppliers = suppliers.clone();
+        }
+        Set<String> unset = new LinkedHashSet<>();
+        collectUnset(segments, values, bound, suppliers, unset);
+        return unset.toArray(new String[0]);
+    }
+
+    /**
+     * 渲染模板
+     *
+     * @param values          按槽位存放的参数值
+     * @param bound           按槽位标记参数是否已设置
+     * @param defaultEscaper  未指定修饰符的占位符使用的转义器
+     * @param strictMode      严格模式，如果为true则在有未设置的参数时抛出异常
+     * @return 替换后的prompt
+     */
+    String render(String[] values, boolean[] bound, PromptEscaper defaultEscaper, boolean strictMode) {
+        return render(values, bound, null, null, defaultEscaper, strictMode);
+    }
+
+    /**
+     * 渲染模板
+     *
+     * @param values          按槽位存放的参数值
+     * @param bound           按槽位标记参数是否已设置
+     * @param suppliers       按槽位存放的延迟参数，没有延迟参数时为null
+     * @param items           按槽位存放的循环块元素，没有循环块元素时为null
+     * @param defaultEscaper  未指定修饰符的占位符使用的转义器
+     * @param strictMode      严格模式，如果为true则在有未设置的参数时抛出异常
+     * @return 替换后的prompt
+     */
+    String render(String[] values, boolean[] bound, Supplier<? extends CharSequence>[] suppliers,
+                  Iterable<? extends Map<String, String>>[] items, PromptEscaper defaultEscaper, boolean strictMode) {
+        StringBuilder result = new StringBuilder(template.length());
+        try {
+            render(values, bound, suppliers, items, defaultEscaper, strictMode, PromptSink.of(result));
+        } catch (IOException e) {
+            // StringBuilder不会抛出IOException
+            throw new UncheckedIOException(e);
+        }
+        return result.toString();
+    }
+
+    /**
+     * 渲染模板并写出到指定的输出目标
+     * <p>
+     * 严格模式下会在写出任何内容之前完成检查，检查失败时输出目标不会被写入。
+     *
+     * @param values          按槽位存放的参数值
+     * @param bound           按槽位标记参数是否已设置
+     * @param defaultEscaper  未指定修饰符的占位符使用的转义器
+     * @param strictMode      严格模式，如果为true则在有未设置的参数时抛出异常
+     * @param sink            输出目标
+     * @throws IOException 写入输出目标失败
+     */
+    void render(String[] values, boolean[] bound, PromptEscaper defaultEscaper, boolean strictMode,
+                PromptSink sink) throws IOException {
+        render(values, bound, null, null, defaultEscaper, strictMode, sink);
+    }
+
+    /**
+     * 渲染模板并写出到指定的输出目标
+     * <p>
+     * 延迟参数只在渲染到达引用它的占位符或条件时求值，同一次渲染中多次引用只求值一次；
+     * 求值结果保存在本次渲染的参数副本中，传入的数组不会被修改。
+     * 严格模式下会在写出任何内容之前完成检查，检查失败时输出目标不会被写入；检查只查看编译时预先计算的各块必需槽位，
+     * 不遍历文本段也不分配集合。循环块的元素只在渲染时遍历一次，块内参数的检查随每个元素进行，
+     * 因此元素缺少参数时，之前的内容已经写出。
+     *
+     * @param values          按槽位存放的参数值
+     * @param bound           按槽位标记参数是否已设置
+     * @param suppliers       按槽位存放的延迟参数，没有延迟参数时为null
+     * @param items           按槽位存放的循环块元素，没有循环块元素时为null
+     * @param defaultEscaper  未指定修饰符的占位符使用的转义器
+     * @param strictMode      严格模式，如果为true则在有未设置的参数时抛出异常
+     * @param sink            输出目标
+     * @throws IOException 写入输出目标失败
+     */
+    void render(String[] values, boolean[] bound, Supplier<? extends CharSequence>[] suppliers,
+                Iterable<? extends Map<String, String>>[] items, PromptEscaper defaultEscaper, boolean strictMode,
+                PromptSink sink) throws IOException {
+        if (suppliers != null) {
+            values = values.clone();
+            suppliers = suppliers.clone();
+        }
+        RenderListener listener = renderListener;
+        if (listener == null) {
+            renderTo(values, bound, suppliers, items, defaultEscaper, strictMode, sink);
+            return;
+        }
+        long start = System.nanoTime();
+        PromptSink.MeteredSink metered = PromptSink.metered(sink);
+        renderTo(values, bound, suppliers, items, defaultEscaper, strictMode, metered);
+        try {
+            listener.onRender(this, System.nanoTime() - start, metered.getEscapeNanos(), metered.getLength());
+        } catch (RuntimeException e) {
+            // 输出已经写出，监听器的异常不应使渲染失败
+        }
+    }
+
+    private void renderTo(String[] values, boolean[] bound, Supplier<? extends CharSequence>[] suppliers,
+                          Iterable<? extends Map<String, String>>[] items, PromptEscaper defaultEscaper,
+                          boolean strictMode, PromptSink sink) throws IOException {
+        // 与渲染共用参数副本，检查时求值的延迟参数在渲染时不再重复求值
+        if (strictMode) {
+            checkBound(values, bound, suppliers);
+        }
+        MethodHandle renderer = suppliers == null && items == null ? specializedRenderer() : null;
+        if (renderer != null) {
+            invokeRenderer(renderer, values, bound, defaultEscaper, sink);
+        } else {
+            renderSegments(segments, values, bound, suppliers, items, defaultEscaper, strictMode, sink);
+        }
+        sink.finish();
+    }
+
+    /**
+     * 获取专用渲染器，未开启或尚未达到解释执行次数时返回null，达到次数时生成
+     */
+    private MethodHandle specializedRenderer() {
+        MethodHandle renderer = specialized;
+        if (renderer != null || specializeThreshold < 0 || unspecializable
+                || interpretedRenders.getAndIncrement() < specializeThreshold) {
+            return renderer;
+        }
+        synchronized (this) {
+            if (specialized == null && !unspecializable) {
+                specialized = specialize(segments);
+                // 包含无法生成的段（循环块），之后不再尝试
+                unspecializable = specialized == null;
+            }
+            return specialized;
+        }
+    }
+
+    private static void invokeRenderer(MethodHandle renderer, String[] values, boolean[] bound,
+                                       PromptEscaper defaultEscaper, PromptSink sink) throws IOException {
+        try {
+            renderer.invokeExact(values, bound, defaultEscaper, sink);
+        } catch (IOException | RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            // 生成的句柄只会抛出写出时的IOException与非受检异常
+            throw new UndeclaredThrowableException(e);
+        }
+    }
+
+    /**
+     * 由一组段生成渲染句柄，存在无法生成的段时返回null
+     * <p>
+     * 句柄按二分方式组合，避免段数很多时生成过深的嵌套。
+     */
+    private static MethodHandle specialize(Segment[] segments) {
+        MethodHandle[] handles = new MethodHandle[segments.length];
+        for (int i = 0; i < segments.length; i++) {
+            handles[i] = segments[i].specialize();
+            if (handles[i] == null) {
+                return null;
+            }
+        }
+        return sequence(handles, 0, handles.length);
+    }
+
+    private static MethodHandle sequence(MethodHandle[] handles, int from, int to) {
+        if (from == to) {
+            return MethodHandles.empty(RENDERER_TYPE);
+        }
+        if (to - from == 1) {
+            return handles[from];
+        }
+        int middle = (from + to) >>> 1;
+        // 返回void的句柄先执行，之后以相同的参数执行后半部分
+        return MethodHandles.foldArguments(sequence(handles, middle, to), sequence(handles, from, middle));
+    }
+
+    private static void writeLiteral(String text, byte[] utf8, String[] values, boolean[] bound,
+                                     PromptEscaper defaultEscaper, PromptSink out) throws IOException {
+        out.literal(text, utf8);
+    }
+
+    private static void writePlaceholder(int slot, PromptEscaper escaper, String unresolved, String[] values,
+                                         boolean[] bound, PromptEscaper defaultEscaper, PromptSink out) throws IOException {
+        String replacement = bound[slot] ? values[slot] : unresolved;
+        if (replacement == null) {
+            replacement = "null";
+        }
+        out.value(replacement, escaper != null ? escaper : defaultEscaper);
+    }
+
+    private static boolean testCondition(int slot, String[] values, boolean[] bound,
+                                         PromptEscaper defaultEscaper, PromptSink out) {
+        String paramValue = values[slot];
+        return paramValue != null && !Str.isBlank(paramValue);
+    }
+
+    /**
+     * 严格模式检查，存在到达的未设置参数时抛出异常
+     *
+     * @param values    按槽位存放的参数值
+     * @param bound     按槽位标记参数是否已设置
+     * @param suppliers 按槽位存放的延迟参数，没有延迟参数时为null；到达的延迟参数会被求值并写回
+     * @throws IllegalStateException 如果存在未设置的参数
+     */
+    void checkBound(String[] values, boolean[] bound, Supplier<? extends CharSequence>[] suppliers) {
+        if (!allBound(requiredSlots, conditionals, values, bound, suppliers)) {
+            Set<String> unset = new LinkedHashSet<>();
+            collectUnset(segments, values, bound, suppliers, unset);
+            throw new IllegalStateException("存在未设置的参数: " + String.join(", ", unset));
+        }
+    }
+
+    /**
+     * 获取段程序的展开形式，供增量渲染按块内的段分别缓存
+     */
+    Outline outline() {
+        return new Outline(segments);
+    }
+
+    private static void collectSlots(Segment segment, Set<Integer> slots) {
+        if (segment instanceof Placeholder) {
+            slots.add(((Placeholder) segment).slot);
+            return;
+        }
+        if (segment instanceof Conditional) {
+            Conditional conditional = (Conditional) segment;
+            slots.add(conditional.slot);
+            for (Segment child : conditional.body) {
+                collectSlots(child, slots);
+            }
+            return;
+        }
+        if (segment instanceof Loop) {
+            Loop loop = (Loop) segment;
+            slots.add(loop.slot);
+            for (Segment child : loop.body) {
+                collectSlots(child, slots);
+            }
+        }
+    }
+
+    /**
+     * 获取槽位的参数值，延迟参数在首次用到时求值并写回本次渲染的参数副本
+     */
+    private static String valueOf(int slot, String[] values, Supplier<? extends CharSequence>[] suppliers) {
+        if (suppliers != null && suppliers[slot] != null) {
+            CharSequence value = suppliers[slot].get();
+            values[slot] = value == null ? null : value.toString();
+            suppliers[slot] = null;
+        }
+        return values[slot];
+    }
+
+    private static void renderSegments(Segment[] segments, String[] values, boolean[] bound,
+                                       Supplier<? extends CharSequence>[] suppliers,
+                                       Iterable<? extends Map<String, String>>[] items,
+                                       PromptEscaper defaultEscaper, boolean strictMode, PromptSink out) throws IOException {
+        for (Segment segment : segments) {
+            renderSegment(segment, values, bound, suppliers, items, defaultEscaper, strictMode, out);
+        }
+    }
+
+    private static void renderSegment(Segment segment, String[] values, boolean[] bound,
+                                      Supplier<? extends CharSequence>[] suppliers,
+                                      Iterable<? extends Map<String, String>>[] items,
+                                      PromptEscaper defaultEscaper, boolean strictMode, PromptSink out) throws IOException {
+        if (segment instanceof Literal) {
+            Literal literal = (Literal) segment;
+            out.literal(literal.text, literal.utf8);
+            return;
+        }
+        if (segment instanceof Placeholder) {
+            Placeholder placeholder = (Placeholder) segment;
+            String replacement = bound[placeholder.slot]
+                    ? valueOf(placeholder.slot, values, suppliers) : placeholder.unresolved;
+
+            // 处理null值
+            if (replacement == null) {
+                replacement = "null";
+            }
+
+            // 应用占位符指定的转义策略，未指定时使用默认策略
+            PromptEscaper escaper = placeholder.escaper != null ? placeholder.escaper : defaultEscaper;
+            out.value(replacement, escaper);
+            return;
+        }
+        if (segment instanceof Loop) {
+            Loop loop = (Loop) segment;
+            Iterable<? extends Map<String, String>> elements = loop.elementsOf(bound, items);
+            if (elements != null) {
+                loop.render(elements, values, bound, suppliers, items, defaultEscaper, strictMode, out);
+            }
+            return;
+        }
+        Conditional conditional = (Conditional) segment;
+        if (conditional.test(values, suppliers)) {
+            renderSegments(conditional.body, values, bound, suppliers, items, defaultEscaper, strictMode, out);
+        }
+    }
+
+    /**
+     * 计算渲染结果的长度而不生成输出，可截断参数的出现不计入长度，而是记录其使用的转义器
+     * <p>
+     * 到达的延迟参数会被求值并写回传入的数组，调用方应传入本次计算专用的副本。
+     * 循环块对每个元素计算块内容的长度，同样不生成输出，块内的参数不参与截断。
+     *
+     * @param values          按槽位存放的参数值
+     * @param bound           按槽位标记参数是否已设置
+     * @param suppliers       按槽位存放的延迟参数，没有延迟参数时为null
+     * @param items           按槽位存放的循环块元素，没有循环块元素时为null
+     * @param defaultEscaper  未指定修饰符的占位符使用的转义器
+     * @param utf8            为true时按UTF-8字节计算长度，否则按字符计算
+     * @param usages          按槽位收集可截断参数每次出现时使用的转义器，不可截断的槽位为null
+     * @return 除可截断参数以外的长度
+     */
+    long measure(String[] values, boolean[] bound, Supplier<? extends CharSequence>[] suppliers,
+                 Iterable<? extends Map<String, String>>[] items, PromptEscaper defaultEscaper, boolean utf8,
+                 List<List<PromptEscaper>> usages) {
+        return measureSegments(segments, values, bound, suppliers, items, defaultEscaper, utf8, usages);
+    }
+
+    private static long measureSegments(Segment[] segments, String[] values, boolean[] bound,
+                                        Supplier<? extends CharSequence>[] suppliers,
+                                        Iterable<? extends Map<String, String>>[] items, PromptEscaper defaultEscaper,
+                                        boolean utf8, List<List<PromptEscaper>> usages) {
+        long length = 0;
+        for (Segment segment : segments) {
+            if (segment instanceof Literal) {
+                Literal literal = (Literal) segment;
+                length += utf8 ? literal.utf8.length : literal.text.length();
+                continue;
+            }
+            if (segment instanceof Placeholder) {
+                Placeholder placeholder = (Placeholder) segment;
+                PromptEscaper escaper = placeholder.escaper != null ? placeholder.escaper : defaultEscaper;
+                String value = bound[placeholder.slot] ? valueOf(placeholder.slot, values, suppliers) : null;
+                if (value != null && usages.get(placeholder.slot) != null) {
+                    usages.get(placeholder.slot).add(escaper);
+                    continue;
+                }
+                String replacement = escaper.escape(bound[placeholder.slot] ? String.valueOf(value) : placeholder.unresolved);
+                length += utf8 ? Utf8.encodedLength(replacement) : replacement.length();
+                continue;
+            }
+            if (segment instanceof Loop) {
+                Loop loop = (Loop) segment;
+                Iterable<? extends Map<String, String>> elements = loop.elementsOf(bound, items);
+                if (elements == null) {
+                    continue;
+                }
+                length += loop.measure(elements, values, bound, suppliers, items, defaultEscaper, utf8);
+                continue;
+            }
+            Conditional conditional = (Conditional) segment;
+            if (conditional.test(values, suppliers)) {
+                length += measureSegments(conditional.body, values, bound, suppliers, items, defaultEscaper, utf8, usages);
+            }
+        }
+        return length;
+    }
+
+    /**
+     * 严格模式的快速检查：只查看预先计算的必需槽位与到达的条件段，不遍历文本段，也不分配集合。
+     * 检查失败时再通过 {@link #collectUnset} 按出现顺序收集未设置的参数用于错误信息
+     */
+    private static boolean allBound(int[] requiredSlots, Conditional[] conditionals, String[] values,
+                                    boolean[] bound, Supplier<? extends CharSequence>[] suppliers) {
+        for (int slot : requiredSlots) {
+            if (!bound[slot]) {
+                return false;
+            }
+        }
+        for (Conditional conditional : conditionals) {
+            if (conditional.test(values, suppliers)
+                    && !allBound(conditional.requiredSlots, conditional.conditionals, values, bound, suppliers)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 将已编译模板的段拼入输出，模板中的参数按名称合并到槽位映射中
+     */
+    private static void splice(CompiledPrompt part, List<Segment> out, Map<String, Integer> slotIndex) {
+        // 槽位映射为恒等映射时（例如第一个模板）直接复用原有的段
+        int[] slots = new int[part.slotNames.length];
+        boolean identity = true;
+        for (int slot = 0; slot < slots.length; slot++) {
+            slots[slot] = slotOf(slotIndex, part.slotNames[slot]);
+            identity &= slots[slot] == slot;
+        }
+        Collections.addAll(out, identity ? part.segments : remapAll(part.segments, slots));
+    }
+
+    /**
+     * 按新的槽位映射复制一组段
+     */
+    private static Segment[] remapAll(Segment[] segments, int[] slots) {
+        Segment[] result = new Segment[segments.length];
+        for (int i = 0; i < segments.length; i++) {
+            result[i] = segments[i].remap(slots);
+        }
+        return result;
+    }
+
+    /**
+     * 计算一组段中直接引用的占位符与循环块槽位（不含嵌套块中的），去重并保持出现顺序
+     */
+    private static int[] requiredSlotsOf(Segment[] segments) {
+        Set<Integer> slots = new LinkedHashSet<>();
+        for (Segment segment : segments) {
+            if (segment instanceof Placeholder) {
+                slots.add(((Placeholder) segment).slot);
+            } else if (segment instanceof Loop) {
+                slots.add(((Loop) segment).slot);
+            }
+        }
+        int[] result = new int[slots.size()];
+        int i = 0;
+        for (int slot : slots) {
+            result[i++] = slot;
+        }
+        return result;
+    }
+
+    /**
+     * 获取一组段中直接包含的条件段
+     */
+    private static Conditional[] conditionalsOf(Segment[] segments) {
+        List<Conditional> result = new ArrayList<>();
+        for (Segment segment : segments) {
+            if (segment instanceof Conditional) {
+                result.add((Conditional) segment);
+            }
+        }
+        return result.toArray(new Conditional[0]);
+    }
+
+    private static void collectUnset(Segment[] segments, String[] values, boolean[] bound,
+                                     Supplier<? extends CharSequence>[] suppliers, Set<String> unset) {
+        for (Segment segment : segments) {
+            if (segment instanceof Placeholder) {
+                Placeholder placeholder = (Placeholder) segment;
+                if (!bound[placeholder.slot]) {
+                    unset.add(placeholder.name);
+                }
+                continue;
+            }
+            if (segment instanceof Loop) {
+                Loop loop = (Loop) segment;
+                if (!bound[loop.slot]) {
+                    unset.add(loop.name);
+                }
+                continue;
+            }
+            if (segment instanceof Conditional) {
+                Conditional conditional = (Conditional) segment;
+                if (conditional.test(values, suppliers)) {
+                    collectUnset(conditional.body, values, bound, suppliers, unset);
+                }
+            }
+        }
+    }
+
+    /**
+     * 模板解析器，持有一次编译过程中的状态
+     */
+    private static final class Parser {
+
+        private final String input;
+
+        // 按名称查找包含的模板片段，为null时不处理包含指令
+        private final Function<String, CompiledPrompt> includes;
+
+        // 预先建立的块标记索引
+        private final BlockTags tags;
+
+        // 参数名称到槽位的映射
+        private final Map<String, Integer> slots = new LinkedHashMap<>();
+
+        private Parser(String input, Function<String, CompiledPrompt> includes) {
+            this.input = input;
+            this.includes = includes;
+            this.tags = new BlockTags(input);
+        }
+
+        /**
+         * 解析[from, to)范围内的模板，处理条件块与循环块，支持嵌套
+         * <p>
+         * 条件块的匹配规则与逐字符串处理时保持一致：开始标记之后第一个同名标记即为结束标记，
+         * 找不到结束括号或结束标记时，剩余部分按普通文本处理。
+         * 循环块使用相同的匹配规则，但找不到结束标记时只有开始标记本身按普通文本（即普通占位符）处理，
+         * 与引入循环块之前的解析结果一致。
+         * <p>
+         * 块标记的位置与每个标记之后的下一个同类同名标记都已在 {@link BlockTags} 中预先计算，
+         * 这里只需按下标跳转，不再为每一层嵌套重新扫描模板，整个解析过程是线性的。
+         *
+         * @param tag 第一个可能位于范围内的块标记的下标
+         */
+        private void parseBlock(int from, int to, int tag, List<Segment> out) {
+            int position = from;
+
+            while (position < to) {
+                // 跳过与已处理内容重叠的块标记
+                while (tag < tags.count && tags.positions[tag] < position) {
+                    tag++;
+                }
+
+                if (tag == tags.count || tags.positions[tag] + BLOCK_PREFIX_LENGTH > to) {
+                    // 没有找到块开始标记，将剩余部分作为文本处理
+                    parseText(position, to, out);
+                    return;
+                }
+
+                // 添加块开始标记之前的内容
+                int startTagPos = tags.positions[tag];
+                parseText(position, startTagPos, out);
+
+                int nameEnd = tags.nameEnds[tag];
+                boolean loop = tags.kinds[tag] == LOOP_KIND;
+
+                if (nameEnd == -1 || nameEnd >= to) {
+                    // 找不到结束括号，剩余部分按普通文本处理
+                    parseText(startTagPos, to, out);
+                    return;
+                }
+
+                // 开始标记之后第一个同类同名标记即为结束标记
+                String blockName = tags.names[tag];
+                int endTag = tags.nextSame[tag];
+                int endTagLength = BLOCK_PREFIX_LENGTH + blockName.length() + 1;
+
+                if (endTag == -1 || tags.positions[endTag] + endTagLength > to) {
+                    if (!loop) {
+                        // 找不到匹配的结束标记，剩余部分按普通文本处理
+                        parseText(startTagPos, to, out);
+                        return;
+                    }
+                    // 未闭合的循环标记按普通文本处理，继续解析之后的内容
+                    parseText(startTagPos, nameEnd + 1, out);
+                    position = nameEnd + 1;
+                    tag++;
+                    continue;
+                }
+
+                int endTagPos = tags.positions[endTag];
+                int slot = slotOf(slots, blockName);
+                List<Segment> body = new ArrayList<>();
+                parseBlock(nameEnd + 1, endTagPos, tag + 1, body);
+                Segment[] bodySegments = body.toArray(new Segment[0]);
+                out.add(loop ? new Loop(blockName, slot, bodySegments, slotNamesOf(bodySegments))
+                        : new Conditional(slot, bodySegments));
+
+                // 更新位置到结束标记之后
+                position = endTagPos + endTagLength;
+                tag = endTag + 1;
+            }
+        }
+
+        /**
+         * 获取一组段引用的全部参数名称，下标即为槽位，未引用的槽位为null
+         */
+        private String[] slotNamesOf(Segment[] body) {
+            Set<Integer> used = new LinkedHashSet<>();
+            for (Segment segment : body) {
+                collectSlots(segment, used);
+            }
+            String[] names = new String[slots.size()];
+            for (Map.Entry<String, Integer> entry : slots.entrySet()) {
+                if (used.contains(entry.getValue())) {
+                    names[entry.getValue()] = entry.getKey();
+                }
+            }
+            return names;
+        }
+
+        /**
+         * 解析[from, to)范围内的普通文本，识别形如#{xxx}的占位符（占位符名称不包含花括号）
+         */
+        private void parseText(int from, int to, List<Segment> out) {
+            int literalStart = from;
+            int pos = from;
+
+            while (pos + 2 < to) {
+                if (input.charAt(pos) != '#' || input.charAt(pos + 1) != '{') {
+                    pos++;
+                    continue;
+                }
+                int nameEnd = pos + 2;
+                while (nameEnd < to && input.charAt(nameEnd) != '{' && input.charAt(nameEnd) != '}') {
+                    nameEnd++;
+                }
+                if (nameEnd == to || input.charAt(nameEnd) != '}' || nameEnd == pos + 2) {
+                    pos++;
+                    continue;
+                }
+                if (literalStart < pos) {
+                    out.add(new Literal(input.substring(literalStart, pos)));
+                }
+                String content = input.substring(pos + 2, nameEnd);
+                if (includes != null && content.startsWith(INCLUDE_PREFIX) && content.length() > INCLUDE_PREFIX.length()) {
+                    include(content.substring(INCLUDE_PREFIX.length()), out);
+                } else {
+                    out.add(parsePlaceholder(content));
+                }
+                pos = nameEnd + 1;
+                literalStart = pos;
+            }
+
+            if (literalStart < to) {
+                out.add(new Literal(input.substring(literalStart, to)));
+            }
+        }
+
+        /**
+         * 解析占位符内容，形如name|modifier时按修饰符解析转义策略；未知的修饰符视为参数名称的一部分
+         */
+        private Placeholder parsePlaceholder(String content) {
+            int separator = content.lastIndexOf('|');
+            if (separator > 0) {
+                PromptEscaper escaper = PromptEscaper.forModifier(content.substring(separator + 1));
+                if (escaper != null) {
+                    String name = content.substring(0, separator);
+                    return new Placeholder(name, slotOf(slots, name), escaper, "#{" + content + "}");
+                }
+            }
+            return new Placeholder(content, slotOf(slots, content), null, "#{" + content + "}");
+        }
+
+        /**
+         * 将包含的模板片段拼入输出，片段本身不会被重新解析
+         */
+        private void include(String name, List<Segment> out) {
+            CompiledPrompt fragment = includes.apply(name);
+            if (fragment == null) {
+                throw new IllegalStateException("未找到模板片段: " + name);
+            }
+            splice(fragment, out, slots);
+        }
+    }
+
+    /**
+     * 获取参数名称的槽位，首次出现时分配新的槽位
+     */
+    private static int slotOf(Map<String, Integer> slots, String name) {
+        return slots.computeIfAbsent(name, k -> slots.size());
+    }
+
+    /**
+     * 模板中全部块标记（条件标记 {@code #{?name}} 与循环标记 {@code #{*name}}）的索引，编译时一次扫描建立
+     * <p>
+     * 块名称不包含右括号，因此某个位置出现完整的结束标记 {@code #{?name}}，
+     * 当且仅当该位置的块标记类型相同且名称也是name；与开始标记重叠的标记名称长度不同，不会被误认为同名。
+     * 于是"开始标记之后第一个同名标记"就是按位置排序后的下一个同类同名标记，可以从右向左一次算出。
+     */
+    private static final class BlockTags {
+
+        // 块标记的数量
+        private final int count;
+
+        // 块标记的起始位置，升序排列
+        private final int[] positions;
+
+        // 块标记的类型字符
+        private final char[] kinds;
+
+        // 块名称之后第一个右括号的位置，没有时为-1
+        private final int[] nameEnds;
+
+        // 块名称，没有右括号时为null
+        private final String[] names;
+
+        // 下一个同类同名块标记的下标，没有时为-1
+        private final int[] nextSame;
+
+        private BlockTags(String input) {
+            List<Integer> found = new ArrayList<>();
+            int pos = input.indexOf("#{");
+            while (pos != -1 && pos + 2 < input.length()) {
+                char kind = input.charAt(pos + 2);
+                if (kind == CONDITION_KIND || kind == LOOP_KIND) {
+                    found.add(pos);
+                    pos = input.indexOf("#{", pos + BLOCK_PREFIX_LENGTH);
+                } else {
+                    pos = input.indexOf("#{", pos + 1);
+                }
+            }
+            this.count = found.size();
+            this.positions = new int[count];
+            this.kinds = new char[count];
+            this.nameEnds = new int[count];
+            this.names = new String[count];
+            this.nextSame = new int[count];
+
+            // 标记位置递增，上一次找到的右括号仍在当前名称之后时直接复用
+            int brace = -2;
+            for (int i = 0; i < count; i++) {
+                positions[i] = found.get(i);
+                kinds[i] = input.charAt(positions[i] + 2);
+                int nameStart = positions[i] + BLOCK_PREFIX_LENGTH;
+                if (brace != -1 && brace < nameStart) {
+                    brace = input.indexOf('}', nameStart);
+                }
+                nameEnds[i] = brace;
+                if (brace != -1) {
+                    names[i] = input.substring(nameStart, brace);
+                }
+            }
+
+            Map<String, Integer> next = new HashMap<>();
+            for (int i = count - 1; i >= 0; i--) {
+                if (names[i] == null) {
+                    nextSame[i] = -1;
+                    continue;
+                }
+                Integer same = next.put(kinds[i] + names[i], i);
+                nextSame[i] = same == null ? -1 : same;
+            }
+        }
+    }
+
+    /**
+     * 按先序展开的段程序，供 {@link RenderSession} 使用。
+     * <p>
+     * 条件段展开为一个条件节点与块内的节点，文本段、占位符段与循环段各为一个节点（循环块的内容不展开）。
+     * 渲染时从头遍历节点，条件不成立时跳到块内容之后，因此块内的每个段都可以像顶层的段一样单独缓存。
+     */
+    static final class Outline {
+
+        private final Segment[] nodes;
+
+        // 条件节点的块内容之后的第一个节点下标，其他节点为-1
+        private final int[] ends;
+
+        private Outline(Segment[] segments) {
+            List<Segment> nodeList = new ArrayList<>();
+            List<Integer> endList = new ArrayList<>();
+            expand(segments, nodeList, endList);
+            this.nodes = nodeList.toArray(new Segment[0]);
+            this.ends = new int[nodes.length];
+            for (int i = 0; i < ends.length; i++) {
+                ends[i] = endList.get(i);
+            }
+        }
+
+        private static void expand(Segment[] segments, List<Segment> nodes, List<Integer> ends) {
+            for (Segment segment : segments) {
+                int index = nodes.size();
+                nodes.add(segment);
+                ends.add(-1);
+                if (segment instanceof Conditional) {
+                    expand(((Conditional) segment).body, nodes, ends);
+                    ends.set(index, nodes.size());
+                }
+            }
+        }
+
+        /**
+         * 获取节点数量
+         */
+        int size() {
+            return nodes.length;
+        }
+
+        /**
+         * 获取文本节点的文本，节点不是文本段时返回null
+         */
+        String getLiteral(int node) {
+            return nodes[node] instanceof Literal ? ((Literal) nodes[node]).text : null;
+        }
+
+        /**
+         * 判断节点是否为条件节点
+         */
+        boolean isConditional(int node) {
+            return nodes[node] instanceof Conditional;
+        }
+
+        /**
+         * 判断节点是否为循环节点
+         */
+        boolean isLoop(int node) {
+            return nodes[node] instanceof Loop;
+        }
+
+        /**
+         * 获取条件节点的块内容之后的第一个节点下标
+         */
+        int getEnd(int node) {
+            return ends[node];
+        }
+
+        /**
+         * 获取文本、占位符或循环节点的输出所依赖的槽位，循环节点包括块标记本身与块内全部参数的槽位
+         */
+        int[] getSlots(int node) {
+            Set<Integer> slots = new LinkedHashSet<>();
+            collectSlots(nodes[node], slots);
+            int[] result = new int[slots.size()];
+            int i = 0;
+            for (int slot : slots) {
+                result[i++] = slot;
+            }
+            return result;
+        }
+
+        /**
+         * 判断条件节点的条件是否成立，到达的延迟参数会被求值并写回
+         */
+        boolean test(int node, String[] values, Supplier<? extends CharSequence>[] suppliers) {
+            return ((Conditional) nodes[node]).test(values, suppliers);
+        }
+
+        /**
+         * 单独渲染一个文本、占位符或循环节点
+         *
+         * @param node           节点下标
+         * @param values         按槽位存放的参数值
+         * @param bound          按槽位标记参数是否已设置
+         * @param suppliers      按槽位存放的延迟参数，没有延迟参数时为null；到达的延迟参数会被求值并写回
+         * @param items          按槽位存放的循环块元素，没有循环块元素时为null
+         * @param defaultEscaper 未指定修饰符的占位符使用的转义器
+         * @param strictMode     严格模式，如果为true则在循环块的元素缺少参数时抛出异常
+         * @param sink           输出目标
+         * @throws IOException 写入输出目标失败
+         */
+        void render(int node, String[] values, boolean[] bound, Supplier<? extends CharSequence>[] suppliers,
+                    Iterable<? extends Map<String, String>>[] items, PromptEscaper defaultEscaper, boolean strictMode,
+                    PromptSink sink) throws IOException {
+            renderSegment(nodes[node], values, bound, suppliers, items, defaultEscaper, strictMode, sink);
+        }
+    }
+
+    /**
+     * 编译后的模板段
+     */
+    private abstract static class Segment {
+
+        /**
+         * 按新的槽位映射复制本段，不引用槽位的段直接返回自身
+         */
+        abstract Segment remap(int[] slots);
+
+        /**
+         * 生成渲染本段的句柄，类型为 {@link #RENDERER_TYPE}，无法生成时返回null
+         */
+        abstract MethodHandle specialize();
+    }
+
+    /**
+     * 文本段，原样输出
+     */
+    private static final class Literal extends Segment {
+
+        private final String text;
+
+        // 编译时预先编码的UTF-8字节，按字节输出时直接写出
+        private final byte[] utf8;
+
+        private Literal(String text) {
+            this.text = text;
+            this.utf8 = text.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        Segment remap(int[] slots) {
+            return this;
+        }
+
+        @Override
+        MethodHandle specialize() {
+            return MethodHandles.insertArguments(WRITE_LITERAL, 0, text, utf8);
+        }
+    }
+
+    /**
+     * 占位符段，输出参数值
+     */
+    private static final class Placeholder extends Segment {
+
+        private final String name;
+
+        private final int slot;
+
+        // 编译时解析的转义策略，为null时使用默认策略
+        private final PromptEscaper escaper;
+
+        // 参数未设置时原样保留的占位符文本
+        private final String unresolved;
+
+        private Placeholder(String name, int slot, PromptEscaper escaper, String unresolved) {
+            this.name = name;
+            this.slot = slot;
+            this.escaper = escaper;
+            this.unresolved = unresolved;
+        }
+
+        @Override
+        Segment remap(int[] slots) {
+            return new Placeholder(name, slots[slot], escaper, unresolved);
+        }
+
+        @Override
+        MethodHandle specialize() {
+            return MethodHandles.insertArguments(WRITE_PLACEHOLDER, 0, slot, escaper, unresolved);
+        }
+    }
+
+    /**
+     * 条件段，参数存在且非空时输出块内容
+     */
+    private static final class Conditional extends Segment {
+
+        private final int slot;
+
+        private final Segment[] body;
+
+        // 块内直接引用的占位符槽位
+        private final int[] requiredSlots;
+
+        // 块内直接包含的条件段
+        private final Conditional[] conditionals;
+
+        private Conditional(int slot, Segment[] body) {
+            this.slot = slot;
+            this.body = body;
+            this.requiredSlots = requiredSlotsOf(body);
+            this.conditionals = conditionalsOf(body);
+        }
+
+        @Override
+        Segment remap(int[] slots) {
+            return new Conditional(slots[slot], remapAll(body, slots));
+        }
+
+        @Override
+        MethodHandle specialize() {
+            MethodHandle renderBody = CompiledPrompt.specialize(body);
+            if (renderBody == null) {
+                return null;
+            }
+            return MethodHandles.guardWithTest(MethodHandles.insertArguments(TEST_CONDITION, 0, slot),
+                    renderBody, MethodHandles.empty(RENDERER_TYPE));
+        }
+
+        private boolean test(String[] values, Supplier<? extends CharSequence>[] suppliers) {
+            String paramValue = valueOf(slot, values, suppliers);
+            return paramValue != null && !Str.isBlank(paramValue);
+        }
+    }
+
+    /**
+     * 循环段，对每个元素输出一次块内容
+     */
+    private static final class Loop extends Segment {
+
+        private final String name;
+
+        private final int slot;
+
+        private final Segment[] body;
+
+        // 块内引用的参数名称，下标为槽位，未引用的槽位为null
+        private final String[] names;
+
+        // 块内引用的槽位
+        private final int[] bodySlots;
+
+        // 块内直接引用的占位符与循环块槽位
+        private final int[] requiredSlots;
+
+        // 块内直接包含的条件段
+        private final Conditional[] conditionals;
+
+        private Loop(String name, int slot, Segment[] body, String[] names) {
+            this.name = name;
+            this.slot = slot;
+            this.body = body;
+            this.names = names;
+            int count = 0;
+            for (String used : names) {
+                if (used != null) {
+                    count++;
+                }
+            }
+            this.bodySlots = new int[count];
+            for (int i = 0, j = 0; i < names.length; i++) {
+                if (names[i] != null) {
+                    bodySlots[j++] = i;
+                }
+            }
+            this.requiredSlots = requiredSlotsOf(body);
+            this.conditionals = conditionalsOf(body);
+        }
+
+        @Override
+        Segment remap(int[] slots) {
+            String[] remapped = new String[maxOf(slots) + 1];
+            for (int used : bodySlots) {
+                remapped[slots[used]] = names[used];
+            }
+            return new Loop(name, slots[slot], remapAll(body, slots), remapped);
+        }
+
+        @Override
+        MethodHandle specialize() {
+            // 循环块的元素不在渲染句柄的参数中，由解释执行处理
+            return null;
+        }
+
+        private static int maxOf(int[] slots) {
+            int max = -1;
+            for (int slot : slots) {
+                max = Math.max(max, slot);
+            }
+            return max;
+        }
+
+        /**
+         * 获取循环的元素，循环参数未设置或设置的不是元素时返回null，此时不输出任何内容
+         */
+        private Iterable<? extends Map<String, String>> elementsOf(boolean[] bound,
+                                                                   Iterable<? extends Map<String, String>>[] items) {
+            return bound[slot] && items != null ? items[slot] : null;
+        }
+
+        /**
+         * 对每个元素渲染一次块内容，块内参数在元素中存在（值可以为null）时使用元素的值，否则使用模板的参数值
+         * <p>
+         * 元素的值写入本次循环专用的参数副本，每个元素只覆盖块内引用的槽位，不为元素创建新的数组或字符串。
+         * 元素中没有的延迟参数与顶层相同，只在块内真正用到时才求值，求值结果写回模板的参数副本供后续元素复用。
+         */
+        private void render(Iterable<? extends Map<String, String>> elements, String[] values, boolean[] bound,
+                            Supplier<? extends CharSequence>[] suppliers,
+                            Iterable<? extends Map<String, String>>[] items, PromptEscaper defaultEscaper,
+                            boolean strictMode, PromptSink out) throws IOException {
+            String[] elementValues = values.clone();
+            boolean[] elementBound = bound.clone();
+            Supplier<? extends CharSequence>[] elementSuppliers = elementSuppliersOf(suppliers);
+            for (Map<String, String> element : elements) {
+                load(element, values, bound, suppliers, elementValues, elementBound, elementSuppliers);
+                if (strictMode && !allBound(requiredSlots, conditionals, elementValues, elementBound, elementSuppliers)) {
+                    Set<String> unset = new LinkedHashSet<>();
+                    collectUnset(body, elementValues, elementBound, elementSuppliers, unset);
+                    throw new IllegalStateException("存在未设置的参数: " + String.join(", ", unset));
+                }
+                renderSegments(body, elementValues, elementBound, elementSuppliers, items, defaultEscaper, strictMode, out);
+            }
+        }
+
+        /**
+         * 计算全部元素渲染结果的长度而不生成输出，元素的参数与 {@link #render} 相同，块内的参数不参与截断
+         */
+        private long measure(Iterable<? extends Map<String, String>> elements, String[] values, boolean[] bound,
+                             Supplier<? extends CharSequence>[] suppliers,
+                             Iterable<? extends Map<String, String>>[] items, PromptEscaper defaultEscaper, boolean utf8) {
+            String[] elementValues = values.clone();
+            boolean[] elementBound = bound.clone();
+            Supplier<? extends CharSequence>[] elementSuppliers = elementSuppliersOf(suppliers);
+            List<List<PromptEscaper>> noUsages = Collections.nCopies(values.length, null);
+            long length = 0;
+            for (Map<String, String> element : elements) {
+                load(element, values, bound, suppliers, elementValues, elementBound, elementSuppliers);
+                length += measureSegments(body, elementValues, elementBound, elementSuppliers, items, defaultEscaper,
+                        utf8, noUsages);
+            }
+            return length;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static Supplier<? extends CharSequence>[] elementSuppliersOf(Supplier<? extends CharSequence>[] suppliers) {
+            return suppliers == null ? null : (Supplier<? extends CharSequence>[]) new Supplier<?>[suppliers.length];
+        }
+
+        /**
+         * 将一个元素的值写入循环专用的参数副本，元素中没有的参数恢复为模板的参数值
+         */
+        private void load(Map<String, String> element, String[] values, boolean[] bound,
+                          Supplier<? extends CharSequence>[] suppliers, String[] elementValues, boolean[] elementBound,
+                          Supplier<? extends CharSequence>[] elementSuppliers) {
+            if (element == null) {
+                throw new IllegalArgumentException("循环元素不能为null: " + name);
+            }
+            for (int used : bodySlots) {
+                String value = element.get(names[used]);
+                if (value != null || element.containsKey(names[used])) {
+                    elementValues[used] = value;
+                    elementBound[used] = true;
+                    if (elementSuppliers != null) {
+                        elementSuppliers[used] = null;
+                    }
+                } else {
+                    elementValues[used] = bound[used] ? values[used] : null;
+                    elementBound[used] = bound[used];
+                    if (elementSuppliers != null) {
+                        elementSuppliers[used] = bound[used] && suppliers[used] != null
+                                ? () -> valueOf(used, values, suppliers) : null;
+                    }
+                }
+            }
+        }
+    }
+
+}
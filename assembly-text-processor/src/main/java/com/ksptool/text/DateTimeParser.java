@@ -0,0 +1,167 @@
+package com.ksptool.text;
+
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.Month;
+import java.time.Year;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link Str} 的日期时间解析。
+ * <p>
+ * 按格式缓存 {@link DateTimeFormatter}，避免每次解析都重新解析格式串；缓存的格式数量有上限，
+ * 超出后新的格式不再进入缓存。格式化器创建时绑定了默认区域，默认区域改变后会重新创建。
+ * <p>
+ * 默认的 {@code yyyy-MM-dd HH:mm:ss}、{@code yyyy-MM-dd}、{@code HH:mm:ss} 三种格式由手写的解析器直接解析，
+ * 不经过 {@link DateTimeFormatter}，除结果对象外不分配内存。手写解析器只处理形状完全符合格式、
+ * 各字段都在常规范围内的字符串，其余情况（包括非法的字符串）一律交给格式化器，
+ * 因此解析结果与抛出的异常都与直接使用 {@link DateTimeFormatter#ofPattern(String)} 完全一致。
+ */
+final class DateTimeParser {
+
+
+    static final String DATE_TIME_FORMAT = "yyyy-MM-dd HH:mm:ss";
+
+    static final String DATE_FORMAT = "yyyy-MM-dd";
+
+    static final String TIME_FORMAT = "HH:mm:ss";
+
+    // 缓存的格式化器数量上限
+    private static final int MAX_FORMATTERS = 256;
+
+    // 格式到格式化器
+    private static final ConcurrentHashMap<String, DateTimeFormatter> FORMATTERS = new ConcurrentHashMap<>();
+
+    private DateTimeParser() {
+        throw new UnsupportedOperationException("工具类不允许实例化");
+    }
+
+    /**
+     * 获取格式对应的格式化器
+     *
+     * @param format 格式
+     * @return 格式化器
+     * @throws IllegalArgumentException 如果格式不合法
+     */
+    static DateTimeFormatter formatter(String format) {
+        Locale locale = Locale.getDefault(Locale.Category.FORMAT);
+        DateTimeFormatter formatter = FORMATTERS.get(format);
+        if (formatter != null && formatter.getLocale().equals(locale)) {
+            return formatter;
+        }
+        formatter = DateTimeFormatter.ofPattern(format);
+        if (FORMATTERS.size() < MAX_FORMATTERS || FORMATTERS.containsKey(format)) {
+            FORMATTERS.put(format, formatter);
+        }
+        return formatter;
+    }
+
+    /**
+     * 解析日期
+     *
+     * @param str    日期字符串
+     * @param format 日期格式
+     * @return 日期
+     * @throws java.time.DateTimeException 如果字符串格式不正确
+     */
+    static LocalDate parseDate(String str, String format) {
+        if (DATE_FORMAT.equals(format) && str.length() == 10) {
+            LocalDate date = date(str, 0);
+            if (date != null) {
+                return date;
+            }
+        }
+        return LocalDate.parse(str, formatter(format));
+    }
+
+    /**
+     * 解析日期时间
+     *
+     * @param str    日期时间字符串
+     * @param format 日期时间格式
+     * @return 日期时间
+     * @throws java.time.DateTimeException 如果字符串格式不正确
+     */
+    static LocalDateTime parseDateTime(String str, String format) {
+        if (DATE_TIME_FORMAT.equals(format) && str.length() == 19 && str.charAt(10) == ' ') {
+            LocalDate date = date(str, 0);
+            LocalTime time = date == null ? null : time(str, 11);
+            if (time != null) {
+                return LocalDateTime.of(date, time);
+            }
+        }
+        return LocalDateTime.parse(str, formatter(format));
+    }
+
+    /**
+     * 解析时间
+     *
+     * @param str    时间字符串
+     * @param format 时间格式
+     * @return 时间
+     * @throws java.time.DateTimeException 如果字符串格式不正确
+     */
+    static LocalTime parseTime(String str, String format) {
+        if (TIME_FORMAT.equals(format) && str.length() == 8) {
+            LocalTime time = time(str, 0);
+            if (time != null) {
+                return time;
+            }
+        }
+        return LocalTime.parse(str, formatter(format));
+    }
+
+    /**
+     * 解析从offset开始的 {@code yyyy-MM-dd}，无法确定结果时返回null
+     */
+    private static LocalDate date(String str, int offset) {
+        int year = digits(str, offset, 4);
+        // 公元0年在yyyy（公元纪年）下不合法，交给格式化器报告
+        if (year <= 0 || str.charAt(offset + 4) != '-' || str.charAt(offset + 7) != '-') {
+            return null;
+        }
+        int month = digits(str, offset + 5, 2);
+        int day = digits(str, offset + 8, 2);
+        if (month < 1 || month > 12 || day < 1 || day > 31) {
+            return null;
+        }
+        // 与格式化器默认的SMART解析一致，超出当月天数的日期取当月最后一天，例如2月30日解析为2月最后一天
+        return LocalDate.of(year, month, Math.min(day, Month.of(month).length(Year.isLeap(year))));
+    }
+
+    /**
+     * 解析从offset开始的 {@code HH:mm:ss}，无法确定结果时返回null
+     */
+    private static LocalTime time(String str, int offset) {
+        if (str.charAt(offset + 2) != ':' || str.charAt(offset + 5) != ':') {
+            return null;
+        }
+        int hour = digits(str, offset, 2);
+        int minute = digits(str, offset + 3, 2);
+        int second = digits(str, offset + 6, 2);
+        if (hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59) {
+            return null;
+        }
+        return LocalTime.of(hour, minute, second);
+    }
+
+    /**
+     * 读取count位ASCII数字，含有其他字符时返回-1
+     */
+    private static int digits(String str, int offset, int count) {
+        int value = 0;
+        for (int i = offset; i < offset + count; i++) {
+            int digit = str.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+}
@@ -0,0 +1,154 @@
+package com.ksptool.text;
+
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 转义结果的缓存。
+ * <p>
+ * 用户名、商品标题、语言文本这类参数值会在成千上万次渲染中重复出现，而每次渲染都会从头执行一遍转义。
+ * 缓存包装一个转义器，以参数值的内容为键保存转义结果，同一个值只在第一次出现时真正转义；
+ * 每个缓存只对应一个转义器，不同转义器的结果不会混用。
+ * <p>
+ * 与 {@link PromptCache} 相同，缓存同时按条目数量与字符总数（参数值与转义结果的长度之和）限制大小，
+ * 超出时按最近最少使用（LRU）的顺序淘汰；缓存分为16个段，每段各自加锁并平分容量。
+ * 超过一段字符数上限的值直接转义，不进入缓存。缓存是线程安全的，可以在多个绑定与线程之间共享。
+ * <p>
+ * XSS过滤器对不含特殊字符的值只做一次扫描并原样返回，不产生任何分配，查询缓存反而多出一次哈希与加锁，
+ * 因此包装 {@link PromptEscaper#HTML} 时这类值直接返回，不查询缓存，也不计入命中与未命中。
+ * 缓存只对大量重复出现、且确实需要转义的值有收益。
+ *
+ * <h3>用法:</h3>
+ * <pre>{@code
+ * private static final EscapeCache XSS_CACHE = new EscapeCache(PromptEscaper.HTML, 4096, 1024 * 1024);
+ *
+ * String result = PreparedPrompt.prepare(template)
+ *     .setEscapeCache(XSS_CACHE)
+ *     .setParameter("name", userName)
+ *     .execute();
+ * double hitRate = XSS_CACHE.getHitRate();
+ * }</pre>
+ *
+ * @see PromptBinding#setEscapeCache(EscapeCache)
+ */
+public final class EscapeCache implements PromptEscaper {
+
+
+    // 被缓存的转义器
+    private final PromptEscaper escaper;
+
+    // 参数值到转义结果，转义结果就是参数值本身时只计算一次长度
+    private final SegmentedLru<String> entries;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * 构造函数
+     *
+     * @param escaper    被缓存的转义器
+     * @param maxEntries 最大条目数
+     * @param maxChars   缓存中参数值与转义结果的最大总字符数
+     */
+    public EscapeCache(PromptEscaper escaper, int maxEntries, long maxChars) {
+        if (escaper == null) {
+            throw new IllegalArgumentException("转义器不能为null");
+        }
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("最大条目数必须大于0");
+        }
+        if (maxChars <= 0) {
+            throw new IllegalArgumentException("最大字符数必须大于0");
+        }
+        this.escaper = escaper;
+        this.entries = new SegmentedLru<>(maxEntries, maxChars,
+                (value, escaped) -> escaped == value ? value.length() : (long) value.length() + escaped.length());
+    }
+
+    /**
+     * 转义参数值，缓存中有相同内容的值时直接返回缓存的结果
+     *
+     * @param value 参数值，不为null
+     * @return 转义后的值
+     */
+    @Override
+    public String escape(String value) {
+        if (escaper == PromptEscaper.HTML && XssEscaper.isUnchanged(value)) {
+            return value;
+        }
+        String escaped = entries.get(value);
+        if (escaped != null) {
+            hits.increment();
+            return escaped;
+        }
+        misses.increment();
+
+        // 在锁外转义，避免长参数值阻塞同一段的其他线程
+        return entries.put(value, escaper.escape(value));
+    }
+
+    /**
+     * 获取被缓存的转义器
+     *
+     * @return 转义器
+     */
+    public PromptEscaper getEscaper() {
+        return escaper;
+    }
+
+    /**
+     * 清空缓存，统计计数不受影响
+     */
+    public void clear() {
+        entries.clear();
+    }
+
+    /**
+     * 获取缓存中的条目数
+     *
+     * @return 条目数
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * 获取命中次数
+     *
+     * @return 命中次数
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * 获取未命中次数
+     *
+     * @return 未命中次数
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * 获取淘汰次数
+     *
+     * @return 淘汰次数
+     */
+    public long getEvictionCount() {
+        return entries.getEvictionCount();
+    }
+
+    /**
+     * 获取命中率
+     *
+     * @return 命中次数占全部转义次数的比例，尚未转义过任何值时返回0
+     */
+    public double getHitRate() {
+        long hitCount = hits.sum();
+        long total = hitCount + misses.sum();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+}
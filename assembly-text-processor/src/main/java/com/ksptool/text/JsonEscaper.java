@@ -0,0 +1,90 @@
+package com.ksptool.text;
+
+
+/**
+ * JSON字符串转义，结果可以直接放在JSON字符串的双引号之间。
+ * <p>
+ * 转义双引号、反斜杠与所有控制字符，输入中不含需要转义的字符时直接返回原字符串。
+ * 结果常被嵌入HTML的 {@code <script>} 块中，因此 {@code <}、{@code >}、{@code &}、{@code /} 也以
+ * Unicode转义序列的形式转义，参数值无法通过 {@code </script>} 或 {@code <!--} 提前结束脚本块；
+ * U+2028、U+2029 在JSON中合法但在早期的JavaScript中是换行符，同样转义。
+ */
+final class JsonEscaper {
+
+
+    // 控制字符对应的转义序列，下标为字符值
+    private static final String[] CONTROL_ESCAPES = new String[32];
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    // 嵌入HTML时需要转义的字符
+    private static final String LT = "\\u003c";
+
+    private static final String GT = "\\u003e";
+
+    private static final String AMP = "\\u0026";
+
+    private static final String SLASH = "\\u002f";
+
+    static {
+        for (int c = 0; c < CONTROL_ESCAPES.length; c++) {
+            CONTROL_ESCAPES[c] = "\\u00" + HEX_DIGITS[c >> 4] + HEX_DIGITS[c & 0xF];
+        }
+        CONTROL_ESCAPES['\b'] = "\\b";
+        CONTROL_ESCAPES['\f'] = "\\f";
+        CONTROL_ESCAPES['\n'] = "\\n";
+        CONTROL_ESCAPES['\r'] = "\\r";
+        CONTROL_ESCAPES['\t'] = "\\t";
+    }
+
+    private JsonEscaper() {
+        throw new UnsupportedOperationException("工具类不允许实例化");
+    }
+
+    /**
+     * 按JSON字符串规则转义
+     *
+     * @param input 输入字符串
+     * @return 转义后的字符串，无需转义时返回输入本身
+     */
+    static String escape(String input) {
+        int length = input.length();
+        StringBuilder result = null;
+        int last = 0;
+        for (int i = 0; i < length; i++) {
+            char c = input.charAt(i);
+            String replacement;
+            if (c < 32) {
+                replacement = CONTROL_ESCAPES[c];
+            } else if (c == '"') {
+                replacement = "\\\"";
+            } else if (c == '\\') {
+                replacement = "\\\\";
+            } else if (c == '<') {
+                replacement = LT;
+            } else if (c == '>') {
+                replacement = GT;
+            } else if (c == '&') {
+                replacement = AMP;
+            } else if (c == '/') {
+                replacement = SLASH;
+            } else if (c == '\u2028') {
+                replacement = "\\u2028";
+            } else if (c == '\u2029') {
+                replacement = "\\u2029";
+            } else {
+                continue;
+            }
+            if (result == null) {
+                result = new StringBuilder(length + 16);
+            }
+            result.append(input, last, i).append(replacement);
+            last = i + 1;
+        }
+        if (result == null) {
+            return input;
+        }
+        return result.append(input, last, length).toString();
+    }
+
+}
@@ -0,0 +1,150 @@
+package com.ksptool.text;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * 按长度预算截断参数值。
+ * <p>
+ * 先根据编译后的模板计算渲染结果的长度（文本段的长度在编译时已知，参数值只计算转义后的长度），
+ * 不生成任何输出；超出预算时按优先级从低到高依次截断被标记为可截断的参数，
+ * 每个参数截断到满足剩余预算为止，之后的参数不再截断。
+ * <p>
+ * 截断作用于转义前的参数值，截断位置不会拆开代理对，也不会拆开转义后的实体或转义序列。
+ * 截断只会让结果变短：被截断为空的参数如果同时用作条件，对应的条件块不再输出。
+ */
+final class LengthBudget {
+
+
+    private LengthBudget() {
+        throw new UnsupportedOperationException("工具类不允许实例化");
+    }
+
+    /**
+     * 计算满足预算的参数值
+     *
+     * @param prompt          编译后的模板
+     * @param values          按槽位存放的参数值
+     * @param bound           按槽位标记参数是否已设置
+     * @param suppliers       按槽位存放的延迟参数，没有延迟参数时为null
+     * @param items           按槽位存放的循环块元素，没有循环块元素时为null
+     * @param defaultEscaper  未指定修饰符的占位符使用的转义器
+     * @param priorities      可截断参数的名称到截断优先级，优先级低的先截断
+     * @param budget          长度预算
+     * @param utf8            为true时按UTF-8字节计算长度，否则按字符计算
+     * @return 截断后的参数值副本；到达的延迟参数已被求值，未到达的延迟参数保持为null，渲染时同样不会到达
+     * @throws IllegalStateException 如果截断所有可截断参数后仍然超出预算
+     */
+    static String[] fit(CompiledPrompt prompt, String[] values, boolean[] bound,
+                        Supplier<? extends CharSequence>[] suppliers, Iterable<? extends Map<String, String>>[] items,
+                        PromptEscaper defaultEscaper,
+                        Map<String, Integer> priorities, long budget, boolean utf8) {
+        if (budget < 0) {
+            throw new IllegalArgumentException("长度预算不能小于0");
+        }
+        String[] fitted = values.clone();
+        Supplier<? extends CharSequence>[] pending = suppliers == null ? null : suppliers.clone();
+
+        List<List<PromptEscaper>> usages = new ArrayList<>(Collections.nCopies(values.length, null));
+        List<Integer> truncatable = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : priorities.entrySet()) {
+            int slot = prompt.slotOf(entry.getKey());
+            if (slot != -1) {
+                usages.set(slot, new ArrayList<>());
+                truncatable.add(slot);
+            }
+        }
+
+        long length = prompt.measure(fitted, bound, pending, items, defaultEscaper, utf8, usages);
+        long[] slotLengths = new long[values.length];
+        for (int slot : truncatable) {
+            slotLengths[slot] = lengthOf(fitted[slot], usages.get(slot), utf8);
+            length += slotLengths[slot];
+        }
+
+        long excess = length - budget;
+        if (excess <= 0) {
+            return fitted;
+        }
+
+        // 优先级相同时按参数在模板中出现的顺序截断
+        truncatable.sort(Comparator.<Integer>comparingInt(slot -> priorities.get(prompt.getParameterName(slot)))
+                .thenComparingInt(slot -> slot));
+        for (int slot : truncatable) {
+            if (excess <= 0) {
+                break;
+            }
+            List<PromptEscaper> escapers = usages.get(slot);
+            if (escapers.isEmpty() || slotLengths[slot] == 0) {
+                continue;
+            }
+            String truncated = truncate(fitted[slot], escapers, slotLengths[slot] - excess, utf8);
+            long truncatedLength = lengthOf(truncated, escapers, utf8);
+            fitted[slot] = truncated;
+            excess -= slotLengths[slot] - truncatedLength;
+        }
+
+        if (excess > 0) {
+            throw new IllegalStateException("Prompt长度超出预算: 最少需要 " + (budget + excess) + ", 预算 " + budget);
+        }
+        return fitted;
+    }
+
+    /**
+     * 截取参数值的前缀，使其在所有出现位置转义后的总长度不超过目标长度
+     * <p>
+     * 返回的前缀一定满足目标长度。转义后的长度随前缀变长单调不减时（例如JSON转义、不转义、只转义HTML特殊字符），
+     * 返回的是满足目标长度的最长前缀；XSS过滤器移除攻击向量时长度不是单调的（截断位置落在攻击向量中间时，
+     * 较短的前缀可能保留了较长的前缀中会被移除的内容），此时返回的只是查找到的最长前缀，可能比实际能容纳的更短。
+     */
+    private static String truncate(String value, List<PromptEscaper> escapers, long target, boolean utf8) {
+        if (target <= 0) {
+            return "";
+        }
+        int end = (int) Math.min(value.length(), target);
+        if (lengthOf(prefix(value, end), escapers, utf8) <= target) {
+            return prefix(value, end);
+        }
+
+        // 二分查找，low始终满足目标长度；长度不单调时可能错过更长的满足目标长度的前缀，但不会返回超出目标长度的前缀
+        int low = 0;
+        int high = end;
+        while (low + 1 < high) {
+            int middle = (low + high) >>> 1;
+            if (lengthOf(prefix(value, middle), escapers, utf8) <= target) {
+                low = middle;
+            } else {
+                high = middle;
+            }
+        }
+        return prefix(value, low);
+    }
+
+    /**
+     * 截取前缀，不拆开代理对
+     */
+    private static String prefix(String value, int end) {
+        if (end > 0 && end < value.length() && Character.isHighSurrogate(value.charAt(end - 1))) {
+            end--;
+        }
+        return value.substring(0, end);
+    }
+
+    private static long lengthOf(String value, List<PromptEscaper> escapers, boolean utf8) {
+        if (value == null) {
+            return 0;
+        }
+        long length = 0;
+        for (PromptEscaper escaper : escapers) {
+            String escaped = escaper.escape(value);
+            length += utf8 ? Utf8.encodedLength(escaped) : escaped.length();
+        }
+        return length;
+    }
+
+}
@@ -0,0 +1,147 @@
+package com.ksptool.text;
+
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 嵌套参数解析器。
+ * <p>
+ * 参数值中包含 {@code #{}} 时视为模板，其中引用的参数（占位符与条件）构成一张依赖图。
+ * 解析器按依赖图的拓扑顺序解析，每个参数值只编译、渲染一次，结果被缓存供其他参数复用；
+ * 依赖图中存在环时立即抛出异常，而不是无限循环。
+ * <p>
+ * 参数值以非严格模式渲染，未设置的参数原样保留。解析器只在一次执行内使用，不是线程安全的。
+ */
+final class NestedResolver {
+
+
+    // 全部参数
+    private final Map<String, String> parameters;
+
+    // 未指定修饰符的占位符使用的转义器
+    private final PromptEscaper defaultEscaper;
+
+    // 已解析完成的参数值
+    private final Map<String, String> resolved = new HashMap<>();
+
+    NestedResolver(Map<String, String> parameters, PromptEscaper defaultEscaper) {
+        this.parameters = parameters;
+        this.defaultEscaper = defaultEscaper;
+    }
+
+    /**
+     * 判断参数值是否需要作为模板解析
+     */
+    static boolean isNested(String value) {
+        return value != null && value.contains("#{");
+    }
+
+    /**
+     * 获取参数解析后的值
+     *
+     * @param name 参数名称
+     * @return 解析后的参数值，参数值不含模板表达式时原样返回
+     * @throws IllegalStateException 如果参数之间存在循环引用
+     */
+    String resolve(String name) {
+        String value = parameters.get(name);
+        if (!isNested(value)) {
+            return value;
+        }
+        String done = resolved.get(name);
+        if (done != null) {
+            return done;
+        }
+
+        // 使用显式栈做后序遍历，依赖链很深时也不会栈溢出
+        Deque<Frame> stack = new ArrayDeque<>();
+        Set<String> resolving = new HashSet<>();
+        stack.push(new Frame(name, value));
+        resolving.add(name);
+
+        while (!stack.isEmpty()) {
+            Frame frame = stack.peek();
+            Frame dependency = frame.nextPendingDependency();
+            if (dependency != null) {
+                if (!resolving.add(dependency.name)) {
+                    throw new IllegalStateException("参数存在循环引用: " + describeCycle(stack, dependency.name));
+                }
+                stack.push(dependency);
+                continue;
+            }
+            stack.pop();
+            resolving.remove(frame.name);
+            resolved.put(frame.name, frame.render());
+        }
+        return resolved.get(name);
+    }
+
+    private static String describeCycle(Deque<Frame> stack, String name) {
+        List<String> path = new ArrayList<>();
+        for (Frame frame : stack) {
+            path.add(0, frame.name);
+            if (frame.name.equals(name)) {
+                break;
+            }
+        }
+        path.add(name);
+        return String.join(" -> ", path);
+    }
+
+    /**
+     * 一个待解析的参数
+     */
+    private final class Frame {
+
+        private final String name;
+
+        private final CompiledPrompt compiled;
+
+        // 下一个待检查的依赖槽位
+        private int nextSlot;
+
+        private Frame(String name, String value) {
+            this.name = name;
+            this.compiled = CompiledPrompt.compile(value);
+        }
+
+        /**
+         * 找到下一个尚未解析的嵌套依赖
+         */
+        private Frame nextPendingDependency() {
+            while (nextSlot < compiled.getSlotCount()) {
+                String dependency = compiled.getParameterName(nextSlot++);
+                String value = parameters.get(dependency);
+                if (isNested(value) && !resolved.containsKey(dependency)) {
+                    return new Frame(dependency, value);
+                }
+            }
+            return null;
+        }
+
+        /**
+         * 所有依赖解析完成后渲染本参数
+         */
+        private String render() {
+            int slotCount = compiled.getSlotCount();
+            String[] values = new String[slotCount];
+            boolean[] bound = new boolean[slotCount];
+            for (int slot = 0; slot < slotCount; slot++) {
+                String dependency = compiled.getParameterName(slot);
+                if (parameters.containsKey(dependency)) {
+                    values[slot] = resolve(dependency);
+                    bound[slot] = true;
+                }
+            }
+            return compiled.render(values, bound, defaultEscaper, false);
+        }
+    }
+
+}
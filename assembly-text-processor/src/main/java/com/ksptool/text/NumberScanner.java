@@ -0,0 +1,234 @@
+package com.ksptool.text;
+
+
+/**
+ * {@link Str} 的数值校验。
+ * <p>
+ * 通过扫描字符判断字符串能否被JDK的数值解析方法接受，非法输入只返回标记值，不创建异常。
+ * 接受的语法与对应的JDK方法完全一致：
+ * <ul>
+ *     <li>整数与 {@link Integer#parseInt(String)}、{@link Long#parseLong(String)} 相同：可选的正负号，
+ *     之后至少一位按 {@link Character#digit(char, int)} 判定的十进制数字（包括全角等非ASCII数字），不允许溢出</li>
+ *     <li>浮点数与 {@link Double#parseDouble(String)} 相同：先去掉首尾不大于空格的字符，之后是可选的正负号与
+ *     {@code NaN}、{@code Infinity}、十进制数（可带指数）或十六进制数（必须带 {@code p} 指数），
+ *     十进制数与十六进制数末尾可以带 {@code f/F/d/D} 后缀</li>
+ * </ul>
+ * 校验通过的字符串再交给JDK方法解析，不会抛出异常。
+ */
+final class NumberScanner {
+
+
+    // 整数非法时的返回值，不在int范围内
+    static final long INVALID = Long.MIN_VALUE;
+
+    private NumberScanner() {
+        throw new UnsupportedOperationException("工具类不允许实例化");
+    }
+
+    /**
+     * 按 {@link Integer#parseInt(String)} 的规则解析整数，并要求结果在[min, max]之间
+     *
+     * @param str 字符串，不为null
+     * @param min 最小值
+     * @param max 最大值
+     * @return 解析结果，非法或超出范围时返回 {@link #INVALID}
+     */
+    static long parseInt(String str, int min, int max) {
+        int length = str.length();
+        if (length == 0) {
+            return INVALID;
+        }
+        int i = 0;
+        boolean negative = false;
+        char first = str.charAt(0);
+        if (first < '0') {
+            if (first == '-') {
+                negative = true;
+            } else if (first != '+') {
+                return INVALID;
+            }
+            if (length == 1) {
+                return INVALID;
+            }
+            i++;
+        }
+        // 按绝对值累加，超过int的范围即可判定溢出
+        long limit = negative ? -(long) Integer.MIN_VALUE : Integer.MAX_VALUE;
+        long value = 0;
+        for (; i < length; i++) {
+            int digit = Character.digit(str.charAt(i), 10);
+            if (digit < 0) {
+                return INVALID;
+            }
+            value = value * 10 + digit;
+            if (value > limit) {
+                return INVALID;
+            }
+        }
+        if (negative) {
+            value = -value;
+        }
+        return value < min || value > max ? INVALID : value;
+    }
+
+    /**
+     * 判断字符串能否被 {@link Long#parseLong(String)} 解析
+     *
+     * @param str 字符串，不为null
+     * @return 可以解析时返回true
+     */
+    static boolean isLong(String str) {
+        int length = str.length();
+        if (length == 0) {
+            return false;
+        }
+        int i = 0;
+        long limit = -Long.MAX_VALUE;
+        char first = str.charAt(0);
+        if (first < '0') {
+            if (first == '-') {
+                limit = Long.MIN_VALUE;
+            } else if (first != '+') {
+                return false;
+            }
+            if (length == 1) {
+                return false;
+            }
+            i++;
+        }
+        // 与JDK相同，按负数累加以容纳Long.MIN_VALUE
+        long multiplyLimit = limit / 10;
+        long value = 0;
+        for (; i < length; i++) {
+            int digit = Character.digit(str.charAt(i), 10);
+            if (digit < 0 || value < multiplyLimit) {
+                return false;
+            }
+            value *= 10;
+            if (value < limit + digit) {
+                return false;
+            }
+            value -= digit;
+        }
+        return true;
+    }
+
+    /**
+     * 判断字符串能否被 {@link Double#parseDouble(String)}（以及 {@link Float#parseFloat(String)}）解析
+     *
+     * @param str 字符串，不为null
+     * @return 可以解析时返回true
+     */
+    static boolean isDouble(String str) {
+        // 与String.trim()相同，去掉首尾不大于空格的字符
+        int start = 0;
+        int end = str.length();
+        while (start < end && str.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && str.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        if (start == end) {
+            return false;
+        }
+
+        int i = start;
+        char c = str.charAt(i);
+        if (c == '+' || c == '-') {
+            if (++i == end) {
+                return false;
+            }
+            c = str.charAt(i);
+        }
+        if (c == 'N') {
+            return str.startsWith("NaN", i) && i + 3 == end;
+        }
+        if (c == 'I') {
+            return str.startsWith("Infinity", i) && i + 8 == end;
+        }
+        if (c == '0' && i + 1 < end && (str.charAt(i + 1) == 'x' || str.charAt(i + 1) == 'X')) {
+            return isHexDouble(str, i + 2, end);
+        }
+
+        int digits = 0;
+        while (i < end && isDigit(str.charAt(i))) {
+            i++;
+            digits++;
+        }
+        if (i < end && str.charAt(i) == '.') {
+            i++;
+            while (i < end && isDigit(str.charAt(i))) {
+                i++;
+                digits++;
+            }
+        }
+        if (digits == 0) {
+            return false;
+        }
+        if (i < end && (str.charAt(i) == 'e' || str.charAt(i) == 'E')) {
+            i = exponent(str, i + 1, end);
+            if (i < 0) {
+                return false;
+            }
+        }
+        return isSuffix(str, i, end);
+    }
+
+    /**
+     * 十六进制浮点数：{@code 0x}之后的有效数字、{@code p}指数与可选后缀
+     */
+    private static boolean isHexDouble(String str, int i, int end) {
+        int digits = 0;
+        while (i < end && isHexDigit(str.charAt(i))) {
+            i++;
+            digits++;
+        }
+        if (i < end && str.charAt(i) == '.') {
+            i++;
+            while (i < end && isHexDigit(str.charAt(i))) {
+                i++;
+                digits++;
+            }
+        }
+        if (digits == 0 || i == end || (str.charAt(i) != 'p' && str.charAt(i) != 'P')) {
+            return false;
+        }
+        i = exponent(str, i + 1, end);
+        return i >= 0 && isSuffix(str, i, end);
+    }
+
+    /**
+     * 指数部分：可选的正负号与至少一位数字，返回指数之后的位置，非法时返回-1
+     */
+    private static int exponent(String str, int i, int end) {
+        if (i < end && (str.charAt(i) == '+' || str.charAt(i) == '-')) {
+            i++;
+        }
+        int start = i;
+        while (i < end && isDigit(str.charAt(i))) {
+            i++;
+        }
+        return i == start ? -1 : i;
+    }
+
+    /**
+     * 剩余部分为空或只有一个类型后缀
+     */
+    private static boolean isSuffix(String str, int i, int end) {
+        if (i == end) {
+            return true;
+        }
+        char c = str.charAt(i);
+        return i + 1 == end && (c == 'f' || c == 'F' || c == 'd' || c == 'D');
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isHexDigit(char c) {
+        return isDigit(c) || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+    }
+
+}
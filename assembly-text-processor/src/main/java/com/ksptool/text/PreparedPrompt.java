@@ -1,10 +1,13 @@
 package com.ksptool.text;
 
 
-import java.util.HashMap;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.function.Supplier;
 
 /**
  * 一个用于处理带参数模板的工具类，类似于JDBC中的 {@link java.sql.PreparedStatement}。
@@ -15,9 +18,19 @@ import java.util.regex.Pattern;
  * <ul>
  *   <li><b>参数化模板:</b> 使用 `setParameter` 方法安全地设置参数，避免字符串拼接。</li>
  *   <li><b>条件渲染:</b> 使用 `#{?flag}` ... `#{?flag}` 语法，根据参数是否存在且非空来决定是否包含某段文本。</li>
+ *   <li><b>循环块:</b> 使用 `#{*items}` ... `#{*items}` 语法，对 `setItems` 设置的每个元素渲染一次块内容，直接写出到结果中。</li>
  *   <li><b>链式调用:</b> 所有设置方法都返回当前实例，方便链式编程。</li>
  *   <li><b>嵌套解析:</b> 支持参数值中包含占位符，通过 `executeNested` 方法实现递归解析。</li>
- *   <li><b>XSS过滤:</b> 内置一个简单的XSS过滤器，可以按需开启或关闭。</li>
+ *   <li><b>XSS过滤:</b> 内置一个简单的XSS过滤器，可以按需开启或关闭；通过 `setEscapeCache` 缓存重复参数值的过滤结果，见 {@link EscapeCache}。</li>
+ *   <li><b>转义策略:</b> 占位符可以通过 `#{name|html}`、`#{name|json}`、`#{name|raw}` 单独指定转义方式，见 {@link PromptEscaper}。</li>
+ *   <li><b>流式输出:</b> 通过 `render` 方法将结果直接写入 {@link Appendable} 或 {@link Writer}，避免生成完整的中间字符串；
+ *   通过 `renderUtf8` 方法直接输出UTF-8字节。</li>
+ *   <li><b>延迟参数:</b> 通过 `setLazyParameter` 设置只在渲染到达时才计算的参数值，位于未满足的条件块中的参数不会被计算。</li>
+ *   <li><b>长度预算:</b> 通过 `truncatable` 标记可截断的参数，`executeWithin` 按优先级截断它们使结果不超过字符或字节预算。</li>
+ *   <li><b>批量渲染:</b> 通过 `renderAll` 使用同一个编译结果渲染多行参数，支持顺序、流式与并行方式。</li>
+ *   <li><b>专用渲染器:</b> 通过 `specializeAfter` 为热点模板生成方法句柄组成的专用渲染器，冷模板继续解释执行。</li>
+ *   <li><b>渲染监控:</b> 通过 `setRenderListener` 或 {@link CompiledPrompt#withRenderListener(RenderListener)} 按模板统计渲染次数、耗时与输出大小，见 {@link RenderMetrics}。</li>
+ *   <li><b>模板共享:</b> 通过 `compile` 得到不可变的 {@link CompiledPrompt}，可在线程之间共享，每次渲染使用独立的 {@link PromptBinding}。</li>
  * </ul>
  *
  * <h3>基本用法:</h3>
@@ -58,6 +71,7 @@ import java.util.regex.Pattern;
  * }</pre>
  *
  * @see #prepare(String)
+ * @see #compile(String)
  * @see #setParameter(String, String)
  * @see #execute()
  * @see #executeNested()
@@ -68,20 +82,8 @@ public class PreparedPrompt {
     // 原始prompt模板
     private final String template;
 
-    // 参数映射
-    private final Map<String, String> parameters = new HashMap<>();
-
-    // 匹配#{xxx}格式的正则表达式
-    private static final Pattern PLACEHOLDER_PATTERN = Pattern.compile("#\\{([^{}]+)\\}");
-
-    // 匹配条件表达式 #{?xxx} 的开始标记
-    private static final Pattern CONDITION_START_PATTERN = Pattern.compile("#\\{\\?(\\w+)\\}");
-
-    // 匹配条件表达式 #{?xxx} 的结束标记
-    private static final Pattern CONDITION_END_PATTERN = Pattern.compile("#\\{\\?(\\w+)\\}");
-
-    // 是否启用XSS过滤
-    private boolean enableXssFilter = true;
+    // 本实例的参数绑定，开启专用渲染器时替换为绑定到专用副本的新绑定
+    private PromptBinding binding;
 
     /**
      * 构造函数
@@ -93,10 +95,19 @@ public class PreparedPrompt {
             throw new IllegalArgumentException("Prompt模板不能为null");
         }
         this.template = template;
+        this.binding = PromptCache.global().get(template).bind();
+    }
+
+    private PreparedPrompt(CompiledPrompt compiled) {
+        this.template = compiled.getTemplate();
+        this.binding = compiled.bind();
     }
 
     /**
      * 合并另一个模板，使用指定的分隔符
+     * <p>
+     * 合并直接拼接两个模板已编译的段（要合并的模板从全局缓存中获取），分隔符作为文本段插入，不会重新解析模板，
+     * 见 {@link CompiledPrompt#concat(CharSequence, CompiledPrompt...)}。当前实例的参数与XSS过滤设置会被复制到新实例。
      *
      * @param separatorStr 分隔符
      * @param template     要合并的模板
@@ -107,12 +118,12 @@ public class PreparedPrompt {
             throw new IllegalArgumentException("要合并的模板不能为null");
         }
 
-        // 创建新的PreparedPrompt实例，传入合并后的模板
-        PreparedPrompt newPrompt = new PreparedPrompt(this.template + separatorStr + template);
+        // 拼接已编译的段，创建新的PreparedPrompt实例
+        CompiledPrompt compiled = binding.getPrompt().union(String.valueOf(separatorStr), PromptCache.global().get(template));
+        PreparedPrompt newPrompt = new PreparedPrompt(compiled);
 
         // 复制原有参数
-        newPrompt.parameters.putAll(this.parameters);
-        newPrompt.enableXssFilter = this.enableXssFilter;
+        binding.copyTo(newPrompt.binding);
 
         return newPrompt;
     }
@@ -138,7 +149,33 @@ public class PreparedPrompt {
         if (name == null) {
             throw new IllegalArgumentException("参数名不能为null");
         }
-        parameters.put(name, value);
+        binding.setParameter(name, value);
+        return this;
+    }
+
+    /**
+     * 设置延迟计算的参数值，提供者只在渲染实际到达引用该参数的占位符或条件时才被调用，
+     * 同一次渲染中多次引用只调用一次，见 {@link PromptBinding#setLazyParameter(String, Supplier)}
+     *
+     * @param name     参数名称
+     * @param supplier 参数值的提供者
+     * @return 当前PreparedPrompt实例，支持链式调用
+     */
+    public PreparedPrompt setLazyParameter(String name, Supplier<? extends CharSequence> supplier) {
+        binding.setLazyParameter(name, supplier);
+        return this;
+    }
+
+    /**
+     * 设置循环块的元素，块内容对每个元素渲染一次，块内参数优先取元素中的同名值，
+     * 见 {@link PromptBinding#setItems(String, Iterable)}
+     *
+     * @param name  循环块名称
+     * @param items 循环块的元素
+     * @return 当前PreparedPrompt实例，支持链式调用
+     */
+    public PreparedPrompt setItems(String name, Iterable<? extends Map<String, String>> items) {
+        binding.setItems(name, items);
         return this;
     }
 
@@ -152,7 +189,7 @@ public class PreparedPrompt {
         if (params == null) {
             throw new IllegalArgumentException("参数映射不能为null");
         }
-        parameters.putAll(params);
+        binding.setParameters(params);
         return this;
     }
 
@@ -162,18 +199,60 @@ public class PreparedPrompt {
      * @return 当前PreparedPrompt实例，支持链式调用
      */
     public PreparedPrompt clearParameters() {
-        parameters.clear();
+        binding.clearParameters();
         return this;
     }
 
     /**
-     * 设置是否启用XSS过滤
+     * 设置是否启用XSS过滤，只影响未指定修饰符的占位符
      *
      * @param enable 是否启用
      * @return 当前PreparedPrompt实例，支持链式调用
      */
     public PreparedPrompt enableXssFilter(boolean enable) {
-        this.enableXssFilter = enable;
+        binding.enableXssFilter(enable);
+        return this;
+    }
+
+    /**
+     * 设置XSS过滤使用的转义结果缓存，重复出现的参数值只转义一次，见 {@link PromptBinding#setEscapeCache(EscapeCache)}
+     *
+     * @param cache 转义结果缓存，为null时不使用缓存
+     * @return 当前PreparedPrompt实例，支持链式调用
+     */
+    public PreparedPrompt setEscapeCache(EscapeCache cache) {
+        binding.setEscapeCache(cache);
+        return this;
+    }
+
+    /**
+     * 为热点模板开启专用渲染器，模板再被解释执行指定次数后生成，见 {@link CompiledPrompt#specializeAfter(int)}
+     * <p>
+     * 只对当前实例生效，全局缓存中的编译结果与使用相同模板文本的其他实例不受影响；已设置的参数保留。
+     * 专用渲染器属于当前实例，因此只有长期复用的实例才值得开启。
+     *
+     * @param renders 生成专用渲染器之前解释执行的次数
+     * @return 当前PreparedPrompt实例，支持链式调用
+     */
+    public PreparedPrompt specializeAfter(int renders) {
+        PromptBinding specialized = binding.getPrompt().specializeAfter(renders).bind();
+        binding.copyTo(specialized);
+        binding = specialized;
+        return this;
+    }
+
+    /**
+     * 设置渲染监听器，之后的每次渲染完成后通知监听器，见 {@link CompiledPrompt#withRenderListener(RenderListener)}
+     * <p>
+     * 只对当前实例生效，全局缓存中的编译结果与使用相同模板文本的其他实例不受影响；已设置的参数保留。
+     *
+     * @param listener 渲染监听器，为null时取消监听
+     * @return 当前PreparedPrompt实例，支持链式调用
+     */
+    public PreparedPrompt setRenderListener(RenderListener listener) {
+        PromptBinding listened = binding.getPrompt().withRenderListener(listener).bind();
+        binding.copyTo(listened);
+        binding = listened;
         return this;
     }
 
@@ -192,7 +271,7 @@ public class PreparedPrompt {
      * @return 参数映射的副本
      */
     public Map<String, String> getParameters() {
-        return new HashMap<>(parameters);
+        return binding.getParameters();
     }
 
     /**
@@ -203,39 +282,101 @@ public class PreparedPrompt {
      * @throws IllegalStateException 如果strictMode为true且存在未设置的参数
      */
     public String execute(boolean strictMode) {
-        // 首先处理条件表达式
-        String processedTemplate = processConditionalBlocks(this.template);
+        return binding.execute(strictMode);
+    }
 
-        // 然后处理普通占位符
-        String[] unsetParams = getUnsetParameters(processedTemplate);
-        if (strictMode && unsetParams.length > 0) {
-            throw new IllegalStateException("存在未设置的参数: " + String.join(", ", unsetParams));
-        }
+    /**
+     * 执行替换并将结果直接写入输出目标，不生成完整的中间字符串
+     *
+     * @param out        输出目标
+     * @param strictMode 严格模式，如果为true则在有未设置的参数时抛出异常（此时不会写出任何内容）
+     * @throws IOException           写入输出目标失败
+     * @throws IllegalStateException 如果strictMode为true且存在未设置的参数
+     */
+    public void render(Appendable out, boolean strictMode) throws IOException {
+        binding.render(out, strictMode);
+    }
 
-        StringBuilder result = new StringBuilder();
-        Matcher matcher = PLACEHOLDER_PATTERN.matcher(processedTemplate);
+    /**
+     * 执行替换并将结果直接写入输出目标（默认严格模式）
+     *
+     * @param out 输出目标
+     * @throws IOException           写入输出目标失败
+     * @throws IllegalStateException 如果存在未设置的参数
+     */
+    public void render(Appendable out) throws IOException {
+        binding.render(out, true);
+    }
 
-        while (matcher.find()) {
-            String paramName = matcher.group(1);
-            String replacement = parameters.getOrDefault(paramName, "#{" + paramName + "}");
+    /**
+     * 执行替换并将结果直接写入Writer，Writer由调用方负责刷新与关闭
+     *
+     * @param out        输出Writer
+     * @param strictMode 严格模式，如果为true则在有未设置的参数时抛出异常（此时不会写出任何内容）
+     * @throws IOException           写入失败
+     * @throws IllegalStateException 如果strictMode为true且存在未设置的参数
+     */
+    public void render(Writer out, boolean strictMode) throws IOException {
+        binding.render(out, strictMode);
+    }
 
-            // 处理null值
-            if (replacement == null) {
-                replacement = "null";
-            }
+    /**
+     * 执行替换并将结果直接写入Writer（默认严格模式），Writer由调用方负责刷新与关闭
+     *
+     * @param out 输出Writer
+     * @throws IOException           写入失败
+     * @throws IllegalStateException 如果存在未设置的参数
+     */
+    public void render(Writer out) throws IOException {
+        binding.render(out, true);
+    }
 
-            // 应用XSS过滤
-            if (enableXssFilter) {
-                replacement = escapeXss(replacement);
-            }
+    /**
+     * 执行替换并将结果以UTF-8编码直接写入输出流，模板中的文本段在编译时已预先编码
+     *
+     * @param out        输出流，由调用方负责刷新与关闭
+     * @param strictMode 严格模式，如果为true则在有未设置的参数时抛出异常（此时不会写出任何内容）
+     * @throws IOException           写入失败
+     * @throws IllegalStateException 如果strictMode为true且存在未设置的参数
+     */
+    public void renderUtf8(OutputStream out, boolean strictMode) throws IOException {
+        binding.renderUtf8(out, strictMode);
+    }
 
-            // 需要处理replacement中的特殊字符，如$和\
-            replacement = Matcher.quoteReplacement(replacement);
-            matcher.appendReplacement(result, replacement);
-        }
-        matcher.appendTail(result);
+    /**
+     * 执行替换并将结果以UTF-8编码直接写入输出流（默认严格模式）
+     *
+     * @param out 输出流，由调用方负责刷新与关闭
+     * @throws IOException           写入失败
+     * @throws IllegalStateException 如果存在未设置的参数
+     */
+    public void renderUtf8(OutputStream out) throws IOException {
+        binding.renderUtf8(out, true);
+    }
 
-        return result.toString();
+    /**
+     * 执行替换并将结果以UTF-8编码直接写入ByteBuffer，模板中的文本段在编译时已预先编码
+     *
+     * @param out        目标缓冲区，从当前position开始写入
+     * @param strictMode 严格模式，如果为true则在有未设置的参数时抛出异常（此时不会写出任何内容）
+     * @return 写入的字节数
+     * @throws java.nio.BufferOverflowException 如果缓冲区剩余空间不足
+     * @throws IllegalStateException            如果strictMode为true且存在未设置的参数
+     */
+    public int renderUtf8(ByteBuffer out, boolean strictMode) {
+        return binding.renderUtf8(out, strictMode);
+    }
+
+    /**
+     * 执行替换并将结果以UTF-8编码直接写入ByteBuffer（默认严格模式）
+     *
+     * @param out 目标缓冲区，从当前position开始写入
+     * @return 写入的字节数
+     * @throws java.nio.BufferOverflowException 如果缓冲区剩余空间不足
+     * @throws IllegalStateException            如果存在未设置的参数
+     */
+    public int renderUtf8(ByteBuffer out) {
+        return binding.renderUtf8(out, true);
     }
 
     /**
@@ -244,195 +385,111 @@ public class PreparedPrompt {
      * @return 未设置的参数列表，如果所有参数都已设置则返回空数组
      */
     public String[] getUnsetParameters() {
-        return getUnsetParameters(processConditionalBlocks(this.template));
+        return binding.getUnsetParameters();
     }
 
     /**
-     * 检查处理后的模板中是否存在未设置的参数
+     * 执行替换并返回最终的prompt（默认严格模式）
      *
-     * @param processedTemplate 经过条件处理后的模板
-     * @return 未设置的参数列表，如果所有参数都已设置则返回空数组
+     * @return 替换后的prompt
+     * @throws IllegalStateException 如果存在未设置的参数
      */
-    private String[] getUnsetParameters(String processedTemplate) {
-        Matcher matcher = PLACEHOLDER_PATTERN.matcher(processedTemplate);
-        Map<String, Boolean> unsetParams = new HashMap<>();
-
-        while (matcher.find()) {
-            String paramName = matcher.group(1);
-            if (!parameters.containsKey(paramName)) {
-                unsetParams.put(paramName, true);
-            }
-        }
-
-        return unsetParams.keySet().toArray(new String[0]);
+    public String execute() {
+        return execute(true);
     }
 
     /**
-     * 处理条件块，支持嵌套的条件表达式
+     * 将参数标记为可截断，见 {@link PromptBinding#truncatable(String, int)}
      *
-     * @param input 输入的模板字符串
-     * @return 处理后的模板字符串
+     * @param name     参数名称
+     * @param priority 截断优先级，数值越小越先截断
+     * @return 当前PreparedPrompt实例，支持链式调用
      */
-    private String processConditionalBlocks(String input) {
-        StringBuilder result = new StringBuilder();
-        int position = 0;
-
-        while (position < input.length()) {
-            // 查找条件开始标记
-            int startTagPos = input.indexOf("#{?", position);
-
-            if (startTagPos == -1) {
-                // 没有找到条件开始标记，将剩余部分添加到结果中
-                result.append(input.substring(position));
-                break;
-            }
-
-            // 添加条件开始标记之前的内容
-            result.append(input, position, startTagPos);
-
-            // 提取条件名称
-            int nameStart = startTagPos + 3; // "#{?".length()
-            int nameEnd = input.indexOf("}", nameStart);
-
-            if (nameEnd == -1) {
-                // 找不到结束括号，直接添加原始内容并继续
-                result.append(input.substring(startTagPos));
-                break;
-            }
-
-            String conditionName = input.substring(nameStart, nameEnd);
-            String endTag = "#{?" + conditionName + "}";
-
-            // 查找对应的结束标记，考虑到嵌套情况
-            int endTagPos = findMatchingEndTag(input, nameEnd + 1, conditionName);
-
-            if (endTagPos == -1) {
-                // 找不到匹配的结束标记，直接添加原始内容并继续
-                result.append(input.substring(startTagPos));
-                break;
-            }
-
-            // 提取条件块内容（不包括开始和结束标记）
-            String blockContent = input.substring(nameEnd + 1, endTagPos);
-
-            // 检查条件是否满足
-            String paramValue = parameters.get(conditionName);
-            if (paramValue != null && !Str.isBlank(paramValue)) {
-                // 条件满足，递归处理条件块内容
-                result.append(processConditionalBlocks(blockContent));
-            }
-
-            // 更新位置到结束标记之后
-            position = endTagPos + endTag.length();
-        }
-
-        return result.toString();
+    public PreparedPrompt truncatable(String name, int priority) {
+        binding.truncatable(name, priority);
+        return this;
     }
 
     /**
-     * 查找匹配的结束标记，处理嵌套情况
+     * 执行替换，并截断可截断的参数使结果不超过指定的字符数
      *
-     * @param input         输入字符串
-     * @param startPos      开始查找的位置
-     * @param conditionName 条件名称
-     * @return 匹配的结束标记位置，如果未找到则返回-1
+     * @param maxChars   最大字符数
+     * @param strictMode 严格模式，如果为true则在有未设置的参数时抛出异常
+     * @return 替换后的prompt
+     * @throws IllegalStateException 如果截断所有可截断参数后仍然超出预算，或strictMode为true且存在未设置的参数
      */
-    private int findMatchingEndTag(String input, int startPos, String conditionName) {
-        int nestLevel = 1;
-        int pos = startPos;
-        String startTag = "#{?" + conditionName + "}";
-        String endTag = "#{?" + conditionName + "}";
-
-        while (pos < input.length()) {
-            int nextStartTagPos = input.indexOf(startTag, pos);
-            int nextEndTagPos = input.indexOf(endTag, pos);
+    public String executeWithin(int maxChars, boolean strictMode) {
+        return binding.executeWithin(maxChars, strictMode);
+    }
 
-            if (nextEndTagPos == -1) {
-                // 找不到结束标记
-                return -1;
-            }
+    /**
+     * 执行替换，并截断可截断的参数使结果不超过指定的字符数（默认严格模式）
+     *
+     * @param maxChars 最大字符数
+     * @return 替换后的prompt
+     * @throws IllegalStateException 如果截断所有可截断参数后仍然超出预算，或存在未设置的参数
+     */
+    public String executeWithin(int maxChars) {
+        return executeWithin(maxChars, true);
+    }
 
-            if (nextStartTagPos != -1 && nextStartTagPos < nextEndTagPos) {
-                // 找到嵌套的开始标记
-                nestLevel++;
-                pos = nextStartTagPos + startTag.length();
-            } else {
-                // 找到结束标记
-                nestLevel--;
-                if (nestLevel == 0) {
-                    return nextEndTagPos;
-                }
-                pos = nextEndTagPos + endTag.length();
-            }
-        }
+    /**
+     * 执行替换并以UTF-8编码写入输出流，并截断可截断的参数使写出的字节数不超过预算
+     *
+     * @param out        输出流
+     * @param maxBytes   最大字节数
+     * @param strictMode 严格模式，如果为true则在有未设置的参数时抛出异常（此时不会写出任何内容）
+     * @throws IOException           写入输出流失败
+     * @throws IllegalStateException 如果截断所有可截断参数后仍然超出预算，或strictMode为true且存在未设置的参数
+     */
+    public void renderUtf8Within(OutputStream out, long maxBytes, boolean strictMode) throws IOException {
+        binding.renderUtf8Within(out, maxBytes, strictMode);
+    }
 
-        return -1;
+    /**
+     * 使用同一个模板批量渲染多行参数，每行参数覆盖在当前已设置的参数之上
+     * <p>
+     * 更多批量渲染方式（直接写入输出目标、流、并行）见 {@link PromptBinding#renderAll(Iterable, boolean)}。
+     *
+     * @param rows       参数行
+     * @param strictMode 严格模式，如果为true则在有未设置的参数时抛出异常
+     * @return 与参数行顺序一致的渲染结果
+     * @throws IllegalStateException 如果strictMode为true且存在未设置的参数
+     */
+    public List<String> renderAll(Iterable<? extends Map<String, String>> rows, boolean strictMode) {
+        return binding.renderAll(rows, strictMode);
     }
 
     /**
-     * 执行替换并返回最终的prompt（默认严格模式）
+     * 使用同一个模板批量渲染多行参数（默认严格模式）
      *
-     * @return 替换后的prompt
+     * @param rows 参数行
+     * @return 与参数行顺序一致的渲染结果
      * @throws IllegalStateException 如果存在未设置的参数
      */
-    public String execute() {
-        return execute(true);
+    public List<String> renderAll(Iterable<? extends Map<String, String>> rows) {
+        return renderAll(rows, true);
     }
 
     /**
      * 先解析参数值中的模板占位符，然后再解析主模板
      * 这允许参数值本身包含模板表达式，实现嵌套解析
+     * <p>
+     * 参数之间的引用关系构成一张依赖图，每个参数值按拓扑顺序只解析一次，见 {@link PromptBinding#executeNested(boolean)}。
      *
      * @param strictMode 严格模式，如果为true则在有未设置的参数时抛出异常
      * @return 替换后的prompt
-     * @throws IllegalStateException 如果strictMode为true且存在未设置的参数
+     * @throws IllegalStateException 如果strictMode为true且存在未设置的参数，或参数之间存在循环引用
      */
     public String executeNested(boolean strictMode) {
-        // 多次递归处理参数值，以支持多层嵌套
-        Map<String, String> processedParams = new HashMap<>(this.parameters);
-        boolean hasChanges;
-
-        // 递归处理，直到所有嵌套参数都被解析完成
-        do {
-            hasChanges = false;
-
-            // 创建一个临时的PreparedPrompt用于解析当前层级的参数
-            PreparedPrompt paramProcessor = new PreparedPrompt("");
-            paramProcessor.parameters.putAll(processedParams);
-            paramProcessor.enableXssFilter = this.enableXssFilter;
-
-            // 处理每个参数值，将其视为模板进行解析
-            for (Map.Entry<String, String> entry : processedParams.entrySet()) {
-                String paramName = entry.getKey();
-                String paramValue = entry.getValue();
-
-                if (paramValue != null && paramValue.contains("#{")) {
-                    // 将参数值作为模板进行解析
-                    String processedValue = PreparedPrompt.execute(paramValue, paramProcessor);
-
-                    // 如果解析后的值与原值不同，标记有变化
-                    if (!processedValue.equals(paramValue)) {
-                        processedParams.put(paramName, processedValue);
-                        hasChanges = true;
-                    }
-                }
-            }
-        } while (hasChanges); // 如果有变化，继续处理
-
-        // 创建一个新的PreparedPrompt实例，使用原模板和处理后的参数
-        PreparedPrompt finalProcessor = new PreparedPrompt(this.template);
-        finalProcessor.parameters.putAll(processedParams);
-        finalProcessor.enableXssFilter = this.enableXssFilter;
-
-        // 执行最终的模板替换
-        return finalProcessor.execute(strictMode);
+        return binding.executeNested(strictMode);
     }
 
     /**
      * 先解析参数值中的模板占位符，然后再解析主模板（默认严格模式）
      *
      * @return 替换后的prompt
-     * @throws IllegalStateException 如果存在未设置的参数
+     * @throws IllegalStateException 如果存在未设置的参数，或参数之间存在循环引用
      */
     public String executeNested() {
         return executeNested(true);
@@ -457,8 +514,7 @@ public class PreparedPrompt {
         PreparedPrompt newPrompt = new PreparedPrompt(template);
 
         // 复制参数
-        newPrompt.parameters.putAll(preparedPrompt.parameters);
-        newPrompt.enableXssFilter = preparedPrompt.enableXssFilter;
+        preparedPrompt.binding.copyTo(newPrompt.binding);
 
         // 执行并返回结果
         return newPrompt.execute(false); // 使用非严格模式，因为新模板可能含有原PreparedPrompt中没有的参数
@@ -466,6 +522,8 @@ public class PreparedPrompt {
 
     /**
      * 静态工厂方法，创建PreparedPrompt实例
+     * <p>
+     * 模板的编译结果来自全局缓存 {@link PromptCache#global()}，相同的模板文本不会重复解析。
      *
      * @param template prompt模板
      * @return 新的PreparedPrompt实例
@@ -475,37 +533,14 @@ public class PreparedPrompt {
     }
 
     /**
-     * 对字符串进行XSS过滤
+     * 静态工厂方法，将模板编译为可复用的CompiledPrompt
+     * <p>
+     * 编译后的模板只解析一次，适合缓存起来反复渲染；编译结果同样来自全局缓存 {@link PromptCache#global()}。
      *
-     * @param input 输入字符串
-     * @return 过滤后的字符串
+     * @param template prompt模板
+     * @return 编译后的模板
      */
-    private String escapeXss(String input) {
-        if (input == null) {
-            return "null";
-        }
-
-        // 替换HTML特殊字符
-        String result = input
-                .replace("&", "&amp;")
-                .replace("<", "&lt;")
-                .replace(">", "&gt;")
-                .replace("\"", "&quot;")
-                .replace("'", "&#x27;")
-                .replace("/", "&#x2F;")
-                .replace("\\", "&#x5C;")
-                .replace("(", "&#40;")
-                .replace(")", "&#41;");
-
-        // 过滤常见的XSS攻击向量
-        result = result
-                .replaceAll("(?i)javascript:", "")
-                .replaceAll("(?i)data:", "")
-                .replaceAll("(?i)vbscript:", "")
-                .replaceAll("(?i)expression\\s*\\(", "")
-                .replaceAll("(?i)eval\\s*\\(", "")
-                .replaceAll("(?i)on\\w+\\s*=", "");
-
-        return result;
-    }
-} 
\ No newline at end of file
+    public static CompiledPrompt compile(String template) {
+        return PromptCache.global().get(template);
+    }
+}
@@ -0,0 +1,833 @@
+package com.ksptool.text;
+
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * 一次渲染所使用的参数绑定。
+ * <p>
+ * {@link CompiledPrompt} 本身不可变，可以放在静态字段中被所有线程共享；
+ * 每次渲染时通过 {@link CompiledPrompt#bind()} 创建一个轻量的绑定对象来持有本次的参数。
+ * 绑定对象不是线程安全的，不应在线程之间共享。
+ * <p>
+ * 模板中出现的参数按槽位存放在数组中，渲染时只做数组访问；
+ * 模板中没有出现的参数单独保存，仅用于 {@link #getParameters()} 等场景。
+ *
+ * <h3>基本用法:</h3>
+ * <pre>{@code
+ * private static final CompiledPrompt GREETING = PreparedPrompt.compile("你好, #{name}!");
+ *
+ * String result = GREETING.bind()
+ *     .setParameter("name", "张三")
+ *     .execute();
+ * // result: "你好, 张三!"
+ * }</pre>
+ *
+ * <h3>延迟参数:</h3>
+ * <pre>{@code
+ * String result = REPORT.bind()
+ *     .setParameter("showContext", "")
+ *     // 条件不满足时不会调用serializeContext()
+ *     .setLazyParameter("context", () -> serializeContext())
+ *     .execute();
+ * }</pre>
+ *
+ * <h3>循环块:</h3>
+ * <pre>{@code
+ * // 模板: "#{*items}- #{title}: #{price}\n#{*items}"
+ * String result = ORDER.bind()
+ *     .setItems("items", rows)
+ *     .execute();
+ * }</pre>
+ *
+ * <h3>批量渲染:</h3>
+ * <pre>{@code
+ * List<String> results = GREETING.bind()
+ *     .setParameter("location", "这里")
+ *     .renderAll(rows);
+ * }</pre>
+ *
+ * <h3>按槽位绑定:</h3>
+ * <pre>{@code
+ * private static final int NAME = GREETING.slotOf("name");
+ *
+ * String result = GREETING.bind()
+ *     .set(NAME, "张三")
+ *     .execute();
+ * }</pre>
+ *
+ * @see CompiledPrompt#bind()
+ */
+public final class PromptBinding {
+
+
+    // 绑定的模板
+    private final CompiledPrompt prompt;
+
+    // 按槽位存放的参数值
+    private final String[] values;
+
+    // 按槽位标记参数是否已设置（参数值可以为null）
+    private final boolean[] bound;
+
+    // 模板中没有出现的参数
+    private final Map<String, String> extraParameters = new HashMap<>();
+
+    // 按槽位存放的延迟参数，首次设置延迟参数时才创建
+    private Supplier<? extends CharSequence>[] suppliers;
+
+    // 按槽位存放的循环块元素，首次设置循环块元素时才创建
+    private Iterable<? extends Map<String, String>>[] items;
+
+    // 模板中没有出现的延迟参数
+    private final Map<String, Supplier<? extends CharSequence>> extraSuppliers = new HashMap<>();
+
+    // 按预算渲染时可截断的参数及其截断优先级
+    private final Map<String, Integer> truncatable = new HashMap<>();
+
+    // 是否启用XSS过滤
+    private boolean enableXssFilter = true;
+
+    // XSS过滤使用的转义结果缓存，为null时不使用缓存
+    private EscapeCache escapeCache;
+
+    PromptBinding(CompiledPrompt prompt) {
+        this.prompt = prompt;
+        this.values = new String[prompt.getSlotCount()];
+        this.bound = new boolean[values.length];
+    }
+
+    /**
+     * 按槽位设置参数值
+     *
+     * @param slot  参数槽位，见 {@link CompiledPrompt#slotOf(String)}
+     * @param value 参数值
+     * @return 当前PromptBinding实例，支持链式调用
+     */
+    public PromptBinding set(int slot, String value) {
+        if (slot < 0 || slot >= values.length) {
+            throw new IllegalArgumentException("参数槽位超出范围: " + slot);
+        }
+        values[slot] = value;
+        bound[slot] = true;
+        if (suppliers != null) {
+            suppliers[slot] = null;
+        }
+        if (items != null) {
+            items[slot] = null;
+        }
+        return this;
+    }
+
+    /**
+     * 设置参数值
+     *
+     * @param name  参数名称
+     * @param value 参数值
+     * @return 当前PromptBinding实例，支持链式调用
+     */
+    public PromptBinding setParameter(String name, String value) {
+        if (name == null) {
+            throw new IllegalArgumentException("参数名不能为null");
+        }
+        int slot = prompt.slotOf(name);
+        if (slot == -1) {
+            extraSuppliers.remove(name);
+            extraParameters.put(name, value);
+            return this;
+        }
+        return set(slot, value);
+    }
+
+    /**
+     * 设置延迟计算的参数值
+     * <p>
+     * 提供者只在渲染实际到达引用该参数的占位符或条件时才被调用，位于未满足的条件块中时不会被调用；
+     * 同一次渲染中参数被多次引用时只调用一次，每次渲染都会重新调用。提供者返回null时按null值处理。
+     * {@link #getParameters()} 与嵌套解析需要全部参数值，会调用所有提供者。
+     *
+     * @param name     参数名称
+     * @param supplier 参数值的提供者
+     * @return 当前PromptBinding实例，支持链式调用
+     */
+    @SuppressWarnings("unchecked")
+    public PromptBinding setLazyParameter(String name, Supplier<? extends CharSequence> supplier) {
+        if (name == null) {
+            throw new IllegalArgumentException("参数名不能为null");
+        }
+        if (supplier == null) {
+            throw new IllegalArgumentException("参数值提供者不能为null");
+        }
+        int slot = prompt.slotOf(name);
+        if (slot == -1) {
+            extraParameters.remove(name);
+            extraSuppliers.put(name, supplier);
+            return this;
+        }
+        if (suppliers == null) {
+            suppliers = (Supplier<? extends CharSequence>[]) new Supplier<?>[values.length];
+        }
+        values[slot] = null;
+        bound[slot] = true;
+        suppliers[slot] = supplier;
+        if (items != null) {
+            items[slot] = null;
+        }
+        return this;
+    }
+
+    /**
+     * 设置循环块 {@code #{*name}...#{*name}} 的元素
+     * <p>
+     * 块内容对每个元素渲染一次并直接写出，块内的参数优先取元素中的同名值（值可以为null），
+     * 元素中没有时取本绑定的参数值。元素只在渲染时遍历，每次渲染都会重新遍历。
+     * 模板中没有该循环块时设置会被忽略；之后用 {@link #setParameter(String, String)} 设置同名参数会清除元素。
+     *
+     * @param name  循环块名称
+     * @param items 循环块的元素
+     * @return 当前PromptBinding实例，支持链式调用
+     */
+    @SuppressWarnings("unchecked")
+    public PromptBinding setItems(String name, Iterable<? extends Map<String, String>> items) {
+        if (name == null) {
+            throw new IllegalArgumentException("参数名不能为null");
+        }
+        if (items == null) {
+            throw new IllegalArgumentException("循环元素不能为null");
+        }
+        int slot = prompt.slotOf(name);
+        if (slot == -1) {
+            return this;
+        }
+        set(slot, null);
+        if (this.items == null) {
+            this.items = (Iterable<? extends Map<String, String>>[]) new Iterable<?>[values.length];
+        }
+        this.items[slot] = items;
+        return this;
+    }
+
+    /**
+     * 批量设置参数值
+     *
+     * @param params 参数映射
+     * @return 当前PromptBinding实例，支持链式调用
+     */
+    public PromptBinding setParameters(Map<String, String> params) {
+        if (params == null) {
+            throw new IllegalArgumentException("参数映射不能为null");
+        }
+        for (Map.Entry<String, String> entry : params.entrySet()) {
+            setParameter(entry.getKey(), entry.getValue());
+        }
+        return this;
+    }
+
+    /**
+     * 清除所有参数
+     *
+     * @return 当前PromptBinding实例，支持链式调用
+     */
+    public PromptBinding clearParameters() {
+        Arrays.fill(values, null);
+        Arrays.fill(bound, false);
+        extraParameters.clear();
+        suppliers = null;
+        items = null;
+        extraSuppliers.clear();
+        return this;
+    }
+
+    /**
+     * 设置是否启用XSS过滤，只影响未指定修饰符的占位符
+     *
+     * @param enable 是否启用
+     * @return 当前PromptBinding实例，支持链式调用
+     */
+    public PromptBinding enableXssFilter(boolean enable) {
+        this.enableXssFilter = enable;
+        return this;
+    }
+
+    /**
+     * 设置XSS过滤使用的转义结果缓存，重复出现的参数值只转义一次
+     * <p>
+     * 缓存只作用于启用XSS过滤时未指定修饰符的占位符，缓存的转义器必须是 {@link PromptEscaper#HTML}。
+     * 缓存可以在多个绑定与线程之间共享。
+     *
+     * @param cache 转义结果缓存，为null时不使用缓存
+     * @return 当前PromptBinding实例，支持链式调用
+     * @see EscapeCache
+     */
+    public PromptBinding setEscapeCache(EscapeCache cache) {
+        if (cache != null && cache.getEscaper() != PromptEscaper.HTML) {
+            throw new IllegalArgumentException("转义结果缓存必须使用XSS过滤器");
+        }
+        this.escapeCache = cache;
+        return this;
+    }
+
+    /**
+     * 获取绑定的模板
+     *
+     * @return 编译后的模板
+     */
+    public CompiledPrompt getPrompt() {
+        return prompt;
+    }
+
+    /**
+     * 获取已设置的参数
+     *
+     * @return 参数映射的副本
+     */
+    public Map<String, String> getParameters() {
+        Map<String, String> parameters = new HashMap<>(extraParameters);
+        for (Map.Entry<String, Supplier<? extends CharSequence>> entry : extraSuppliers.entrySet()) {
+            parameters.put(entry.getKey(), evaluate(entry.getValue()));
+        }
+        for (int slot = 0; slot < values.length; slot++) {
+            if (!bound[slot]) {
+                continue;
+            }
+            String value = suppliers != null && suppliers[slot] != null ? evaluate(suppliers[slot]) : values[slot];
+            parameters.put(prompt.getParameterName(slot), value);
+        }
+        return parameters;
+    }
+
+    /**
+     * 检查模板中是否存在未设置的参数
+     *
+     * @return 未设置的参数列表，如果所有参数都已设置则返回空数组
+     */
+    public String[] getUnsetParameters() {
+        return prompt.getUnsetParameters(values, bound, suppliers);
+    }
+
+    /**
+     * 执行替换并返回最终的prompt
+     *
+     * @param strictMode 严格模式，如果为true则在有未设置的参数时抛出异常
+     * @return 替换后的prompt
+     * @throws IllegalStateException 如果strictMode为true且存在未设置的参数
+     */
+    public String execute(boolean strictMode) {
+        return prompt.render(values, bound, suppliers, items, defaultEscaper(), strictMode);
+    }
+
+    /**
+     * 执行替换并返回最终的prompt（默认严格模式）
+     *
+     * @return 替换后的prompt
+     * @throws IllegalStateException 如果存在未设置的参数
+     */
+    public String execute() {
+        return execute(true);
+    }
+
+    /**
+     * 先解析参数值中的模板占位符，然后再解析主模板
+     * <p>
+     * 参数值中包含 {@code #{}} 时被视为模板，其引用的参数构成一张依赖图。
+     * 从主模板引用的参数出发，按拓扑顺序逐个解析，每个参数值只解析一次，结果在本次执行内复用；
+     * 参数之间存在循环引用时立即抛出异常。参数值以非严格模式解析，其中未设置的参数原样保留。
+     *
+     * @param strictMode 严格模式，如果为true则在有未设置的参数时抛出异常
+     * @return 替换后的prompt
+     * @throws IllegalStateException 如果strictMode为true且存在未设置的参数，或参数之间存在循环引用
+     */
+    public String executeNested(boolean strictMode) {
+        Map<String, String> parameters = getParameters();
+        NestedResolver resolver = new NestedResolver(parameters, defaultEscaper());
+        String[] resolvedValues = new String[values.length];
+        for (int slot = 0; slot < values.length; slot++) {
+            if (bound[slot]) {
+                resolvedValues[slot] = resolver.resolve(prompt.getParameterName(slot));
+            }
+        }
+        return prompt.render(resolvedValues, bound, null, items, defaultEscaper(), strictMode);
+    }
+
+    /**
+     * 先解析参数值中的模板占位符，然后再解析主模板（默认严格模式）
+     *
+     * @return 替换后的prompt
+     * @throws IllegalStateException 如果存在未设置的参数，或参数之间存在循环引用
+     */
+    public String executeNested() {
+        return executeNested(true);
+    }
+
+    /**
+     * 执行替换并将结果直接写入输出目标
+     * <p>
+     * 文本段与过滤后的参数值逐段写出，不会生成完整的中间字符串，适合较大的prompt直接写入文件或网络。
+     *
+     * @param out        输出目标
+     * @param strictMode 严格模式，如果为true则在有未设置的参数时抛出异常（此时不会写出任何内容）
+     * @throws IOException           写入输出目标失败
+     * @throws IllegalStateException 如果strictMode为true且存在未设置的参数
+     */
+    public void render(Appendable out, boolean strictMode) throws IOException {
+        if (out == null) {
+            throw new IllegalArgumentException("输出目标不能为null");
+        }
+        prompt.render(values, bound, suppliers, items, defaultEscaper(), strictMode, PromptSink.of(out));
+    }
+
+    /**
+     * 执行替换并将结果直接写入输出目标（默认严格模式）
+     *
+     * @param out 输出目标
+     * @throws IOException           写入输出目标失败
+     * @throws IllegalStateException 如果存在未设置的参数
+     */
+    public void render(Appendable out) throws IOException {
+        render(out, true);
+    }
+
+    /**
+     * 执行替换并将结果直接写入Writer，Writer由调用方负责刷新与关闭
+     *
+     * @param out        输出Writer
+     * @param strictMode 严格模式，如果为true则在有未设置的参数时抛出异常（此时不会写出任何内容）
+     * @throws IOException           写入失败
+     * @throws IllegalStateException 如果strictMode为true且存在未设置的参数
+     */
+    public void render(Writer out, boolean strictMode) throws IOException {
+        render((Appendable) out, strictMode);
+    }
+
+    /**
+     * 执行替换并将结果直接写入Writer（默认严格模式），Writer由调用方负责刷新与关闭
+     *
+     * @param out 输出Writer
+     * @throws IOException           写入失败
+     * @throws IllegalStateException 如果存在未设置的参数
+     */
+    public void render(Writer out) throws IOException {
+        render((Appendable) out, true);
+    }
+
+    /**
+     * 执行替换并将结果以UTF-8编码直接写入输出流
+     * <p>
+     * 文本段使用编译时预先编码的字节，只有参数值在本次调用中编码，不会生成完整的字符串或字节数组。
+     * 输出流由调用方负责刷新与关闭。
+     *
+     * @param out        输出流
+     * @param strictMode 严格模式，如果为true则在有未设置的参数时抛出异常（此时不会写出任何内容）
+     * @throws IOException           写入失败
+     * @throws IllegalStateException 如果strictMode为true且存在未设置的参数
+     */
+    public void renderUtf8(OutputStream out, boolean strictMode) throws IOException {
+        if (out == null) {
+            throw new IllegalArgumentException("输出流不能为null");
+        }
+        prompt.render(values, bound, suppliers, items, defaultEscaper(), strictMode, PromptSink.utf8(out));
+    }
+
+    /**
+     * 执行替换并将结果以UTF-8编码直接写入输出流（默认严格模式）
+     *
+     * @param out 输出流
+     * @throws IOException           写入失败
+     * @throws IllegalStateException 如果存在未设置的参数
+     */
+    public void renderUtf8(OutputStream out) throws IOException {
+        renderUtf8(out, true);
+    }
+
+    /**
+     * 执行替换并将结果以UTF-8编码直接写入ByteBuffer
+     *
+     * @param out        目标缓冲区，从当前position开始写入
+     * @param strictMode 严格模式，如果为true则在有未设置的参数时抛出异常（此时不会写出任何内容）
+     * @return 写入的字节数
+     * @throws java.nio.BufferOverflowException 如果缓冲区剩余空间不足
+     * @throws IllegalStateException            如果strictMode为true且存在未设置的参数
+     */
+    public int renderUtf8(ByteBuffer out, boolean strictMode) {
+        if (out == null) {
+            throw new IllegalArgumentException("目标缓冲区不能为null");
+        }
+        int start = out.position();
+        try {
+            prompt.render(values, bound, suppliers, items, defaultEscaper(), strictMode, PromptSink.utf8(out));
+        } catch (IOException e) {
+            // ByteBuffer不会抛出IOException
+            throw new UncheckedIOException(e);
+        }
+        return out.position() - start;
+    }
+
+    /**
+     * 执行替换并将结果以UTF-8编码直接写入ByteBuffer（默认严格模式）
+     *
+     * @param out 目标缓冲区，从当前position开始写入
+     * @return 写入的字节数
+     * @throws java.nio.BufferOverflowException 如果缓冲区剩余空间不足
+     * @throws IllegalStateException            如果存在未设置的参数
+     */
+    public int renderUtf8(ByteBuffer out) {
+        return renderUtf8(out, true);
+    }
+
+    /**
+     * 将参数标记为可截断，按长度预算渲染时超出预算的部分从这些参数的末尾截去
+     * <p>
+     * 优先级低的参数先被截断，只有截断它仍不足以满足预算时才截断下一个参数。
+     *
+     * @param name     参数名称
+     * @param priority 截断优先级，数值越小越先截断
+     * @return 当前PromptBinding实例，支持链式调用
+     */
+    public PromptBinding truncatable(String name, int priority) {
+        if (name == null) {
+            throw new IllegalArgumentException("参数名不能为null");
+        }
+        truncatable.put(name, priority);
+        return this;
+    }
+
+    /**
+     * 执行替换，并截断可截断的参数使结果不超过指定的字符数
+     * <p>
+     * 结果长度根据编译后的模板与参数值直接计算，不会反复渲染再测量；未超出预算时结果与 {@link #execute(boolean)} 相同。
+     *
+     * @param maxChars   最大字符数
+     * @param strictMode 严格模式，如果为true则在有未设置的参数时抛出异常
+     * @return 替换后的prompt
+     * @throws IllegalStateException 如果截断所有可截断参数后仍然超出预算，或strictMode为true且存在未设置的参数
+     * @see #truncatable(String, int)
+     */
+    public String executeWithin(int maxChars, boolean strictMode) {
+        String[] fitted = LengthBudget.fit(prompt, values, bound, suppliers, items, defaultEscaper(), truncatable, maxChars, false);
+        return prompt.render(fitted, bound, null, items, defaultEscaper(), strictMode);
+    }
+
+    /**
+     * 执行替换，并截断可截断的参数使结果不超过指定的字符数（默认严格模式）
+     *
+     * @param maxChars 最大字符数
+     * @return 替换后的prompt
+     * @throws IllegalStateException 如果截断所有可截断参数后仍然超出预算，或存在未设置的参数
+     */
+    public String executeWithin(int maxChars) {
+        return executeWithin(maxChars, true);
+    }
+
+    /**
+     * 执行替换并将结果以UTF-8编码直接写入输出流，并截断可截断的参数使写出的字节数不超过预算
+     *
+     * @param out        输出流
+     * @param maxBytes   最大字节数
+     * @param strictMode 严格模式，如果为true则在有未设置的参数时抛出异常（此时不会写出任何内容）
+     * @throws IOException           写入输出流失败
+     * @throws IllegalStateException 如果截断所有可截断参数后仍然超出预算，或strictMode为true且存在未设置的参数
+     */
+    public void renderUtf8Within(OutputStream out, long maxBytes, boolean strictMode) throws IOException {
+        if (out == null) {
+            throw new IllegalArgumentException("输出流不能为null");
+        }
+        String[] fitted = LengthBudget.fit(prompt, values, bound, suppliers, items, defaultEscaper(), truncatable, maxBytes, true);
+        prompt.render(fitted, bound, null, items, defaultEscaper(), strictMode, PromptSink.utf8(out));
+    }
+
+    /**
+     * 使用同一个模板批量渲染多行参数（默认严格模式）
+     * <p>
+     * 每行参数覆盖在本绑定已设置的参数之上，各行之间复用槽位数组与输出缓冲区。
+     *
+     * @param rows 参数行
+     * @return 与参数行顺序一致的渲染结果
+     * @throws IllegalStateException 如果存在未设置的参数
+     */
+    public List<String> renderAll(Iterable<? extends Map<String, String>> rows) {
+        return renderAll(rows, true);
+    }
+
+    /**
+     * 使用同一个模板批量渲染多行参数
+     * <p>
+     * 每行参数覆盖在本绑定已设置的参数之上，各行之间复用槽位数组与输出缓冲区。
+     *
+     * @param rows       参数行
+     * @param strictMode 严格模式，如果为true则在有未设置的参数时抛出异常
+     * @return 与参数行顺序一致的渲染结果
+     * @throws IllegalStateException 如果strictMode为true且存在未设置的参数
+     */
+    public List<String> renderAll(Iterable<? extends Map<String, String>> rows, boolean strictMode) {
+        if (rows == null) {
+            throw new IllegalArgumentException("参数行不能为null");
+        }
+        RowRenderer renderer = rowRenderer(strictMode);
+        List<String> results = new ArrayList<>();
+        for (Map<String, String> row : rows) {
+            results.add(renderer.render(row));
+        }
+        return results;
+    }
+
+    /**
+     * 使用同一个模板批量渲染多行参数，并将结果依次直接写入输出目标，不生成每行的中间字符串
+     *
+     * @param rows       参数行
+     * @param out        输出目标
+     * @param separator  行与行之间的分隔符
+     * @param strictMode 严格模式，如果为true则在有未设置的参数时抛出异常
+     * @throws IOException           写入输出目标失败
+     * @throws IllegalStateException 如果strictMode为true且存在未设置的参数
+     */
+    public void renderAll(Iterable<? extends Map<String, String>> rows, Appendable out, CharSequence separator,
+                          boolean strictMode) throws IOException {
+        if (rows == null) {
+            throw new IllegalArgumentException("参数行不能为null");
+        }
+        if (out == null) {
+            throw new IllegalArgumentException("输出目标不能为null");
+        }
+        RowRenderer renderer = rowRenderer(strictMode);
+        boolean first = true;
+        try {
+            for (Map<String, String> row : rows) {
+                if (!first && separator != null) {
+                    out.append(separator);
+                }
+                first = false;
+                renderer.render(row, out);
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * 使用同一个模板渲染参数行组成的流，结果流保持输入流的顺序
+     * <p>
+     * 渲染器从结果流自己的空闲队列中取用，用完后放回，顺序流的各行复用同一个渲染器与输出缓冲区；
+     * 结果流之后被切换为并行流也是安全的，同时渲染的每一行各自使用一个渲染器。
+     * 渲染器只被结果流引用，不在线程中留下状态，结果流不再使用后即可回收。
+     *
+     * @param rows       参数行组成的流
+     * @param strictMode 严格模式，如果为true则在有未设置的参数时抛出异常
+     * @return 渲染结果组成的流
+     * @throws IllegalStateException 如果strictMode为true且存在未设置的参数（在消费结果流时抛出）
+     */
+    public Stream<String> renderAll(Stream<? extends Map<String, String>> rows, boolean strictMode) {
+        if (rows == null) {
+            throw new IllegalArgumentException("参数行不能为null");
+        }
+        String[] baseValues = values.clone();
+        boolean[] baseBound = bound.clone();
+        Supplier<? extends CharSequence>[] baseSuppliers = suppliersSnapshot();
+        Iterable<? extends Map<String, String>>[] baseItems = itemsSnapshot();
+        PromptEscaper escaper = defaultEscaper();
+
+        // 流的执行方式在终端操作时才确定，不能按调用时是否为并行流决定是否共享渲染器
+        Queue<RowRenderer> idle = new ConcurrentLinkedQueue<>();
+        return rows.map(row -> {
+            RowRenderer renderer = idle.poll();
+            if (renderer == null) {
+                renderer = new RowRenderer(prompt, baseValues, baseBound, baseSuppliers, baseItems, escaper, strictMode);
+            }
+            try {
+                return renderer.render(row);
+            } finally {
+                idle.offer(renderer);
+            }
+        });
+    }
+
+    /**
+     * 使用同一个模板在ForkJoin线程池中并行批量渲染多行参数
+     * <p>
+     * 参数行被切分为若干连续的分块，每个分块在一个任务中渲染并复用自己的缓冲区，结果按原始顺序返回。
+     *
+     * @param rows       参数行
+     * @param pool       执行渲染的线程池
+     * @param strictMode 严格模式，如果为true则在有未设置的参数时抛出异常
+     * @return 与参数行顺序一致的渲染结果
+     * @throws IllegalStateException 如果strictMode为true且存在未设置的参数
+     */
+    public List<String> renderAllParallel(List<? extends Map<String, String>> rows, ForkJoinPool pool,
+                                          boolean strictMode) {
+        if (rows == null) {
+            throw new IllegalArgumentException("参数行不能为null");
+        }
+        String[] results = new String[rows.size()];
+        runChunks(rows, pool, strictMode, (renderer, from, to) -> {
+            for (int i = from; i < to; i++) {
+                results[i] = renderer.render(rows.get(i));
+            }
+            return null;
+        });
+        return Arrays.asList(results);
+    }
+
+    /**
+     * 使用同一个模板在ForkJoin线程池中并行批量渲染多行参数，并按原始顺序写入输出目标
+     * <p>
+     * 每个分块先在各自的缓冲区中渲染，全部完成后按分块顺序写入输出目标。
+     *
+     * @param rows       参数行
+     * @param pool       执行渲染的线程池
+     * @param out        输出目标
+     * @param separator  行与行之间的分隔符
+     * @param strictMode 严格模式，如果为true则在有未设置的参数时抛出异常
+     * @throws IOException           写入输出目标失败
+     * @throws IllegalStateException 如果strictMode为true且存在未设置的参数
+     */
+    public void renderAllParallel(List<? extends Map<String, String>> rows, ForkJoinPool pool, Appendable out,
+                                  CharSequence separator, boolean strictMode) throws IOException {
+        if (out == null) {
+            throw new IllegalArgumentException("输出目标不能为null");
+        }
+        List<StringBuilder> chunks = runChunks(rows, pool, strictMode, (renderer, from, to) -> {
+            StringBuilder chunk = new StringBuilder();
+            for (int i = from; i < to; i++) {
+                if (i > 0 && separator != null) {
+                    chunk.append(separator);
+                }
+                renderer.render(rows.get(i), chunk);
+            }
+            return chunk;
+        });
+        for (StringBuilder chunk : chunks) {
+            out.append(chunk);
+        }
+    }
+
+    /**
+     * 将参数行切分为连续的分块并在线程池中执行，按分块顺序返回各分块的结果
+     */
+    private <T> List<T> runChunks(List<? extends Map<String, String>> rows, ForkJoinPool pool, boolean strictMode,
+                                  ChunkTask<T> task) {
+        if (rows == null) {
+            throw new IllegalArgumentException("参数行不能为null");
+        }
+        if (pool == null) {
+            throw new IllegalArgumentException("线程池不能为null");
+        }
+        String[] baseValues = values.clone();
+        boolean[] baseBound = bound.clone();
+        Supplier<? extends CharSequence>[] baseSuppliers = suppliersSnapshot();
+        Iterable<? extends Map<String, String>>[] baseItems = itemsSnapshot();
+        PromptEscaper escaper = defaultEscaper();
+
+        // 每个工作线程分到若干个分块，便于负载均衡
+        int size = rows.size();
+        int chunkCount = Math.max(1, Math.min(size, pool.getParallelism() * 4));
+        int chunkSize = (size + chunkCount - 1) / Math.max(1, chunkCount);
+        List<Callable<T>> tasks = new ArrayList<>();
+        for (int from = 0; from < size; from += chunkSize) {
+            int start = from;
+            int end = Math.min(size, from + chunkSize);
+            tasks.add(() -> task.run(new RowRenderer(prompt, baseValues, baseBound, baseSuppliers, baseItems, escaper, strictMode), start, end));
+        }
+
+        List<T> results = new ArrayList<>(tasks.size());
+        for (Future<T> future : pool.invokeAll(tasks)) {
+            try {
+                results.add(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("批量渲染被中断", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new IllegalStateException("批量渲染失败", e.getCause());
+            }
+        }
+        return results;
+    }
+
+    /**
+     * 渲染一个分块[from, to)的任务
+     */
+    @FunctionalInterface
+    private interface ChunkTask<T> {
+        T run(RowRenderer renderer, int from, int to);
+    }
+
+    /**
+     * 未指定修饰符的占位符使用的转义器
+     */
+    private PromptEscaper defaultEscaper() {
+        if (!enableXssFilter) {
+            return PromptEscaper.RAW;
+        }
+        return escapeCache != null ? escapeCache : PromptEscaper.HTML;
+    }
+
+    /**
+     * 将本绑定的参数（包括延迟参数与循环块元素，不对其求值或遍历）、XSS过滤、转义缓存与截断设置复制到另一个绑定
+     */
+    void copyTo(PromptBinding target) {
+        for (Map.Entry<String, String> entry : extraParameters.entrySet()) {
+            target.setParameter(entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<String, Supplier<? extends CharSequence>> entry : extraSuppliers.entrySet()) {
+            target.setLazyParameter(entry.getKey(), entry.getValue());
+        }
+        for (int slot = 0; slot < values.length; slot++) {
+            if (!bound[slot]) {
+                continue;
+            }
+            String name = prompt.getParameterName(slot);
+            if (suppliers != null && suppliers[slot] != null) {
+                target.setLazyParameter(name, suppliers[slot]);
+                continue;
+            }
+            if (items != null && items[slot] != null) {
+                target.setItems(name, items[slot]);
+                continue;
+            }
+            target.setParameter(name, values[slot]);
+        }
+        target.enableXssFilter(enableXssFilter);
+        target.setEscapeCache(escapeCache);
+        target.truncatable.putAll(truncatable);
+    }
+
+    /**
+     * 以当前参数的快照为基础创建逐行渲染器，之后对本绑定的修改不影响已创建的渲染器
+     */
+    private RowRenderer rowRenderer(boolean strictMode) {
+        return new RowRenderer(prompt, values.clone(), bound.clone(), suppliersSnapshot(), itemsSnapshot(),
+                defaultEscaper(), strictMode);
+    }
+
+    private Supplier<? extends CharSequence>[] suppliersSnapshot() {
+        return suppliers == null ? null : suppliers.clone();
+    }
+
+    private Iterable<? extends Map<String, String>>[] itemsSnapshot() {
+        return items == null ? null : items.clone();
+    }
+
+    private static String evaluate(Supplier<? extends CharSequence> supplier) {
+        CharSequence value = supplier.get();
+        return value == null ? null : value.toString();
+    }
+
+}
@@ -0,0 +1,152 @@
+package com.ksptool.text;
+
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 以模板文本为键的编译结果缓存。
+ * <p>
+ * {@link PreparedPrompt#prepare(String)}、{@link PreparedPrompt#compile(String)} 以及 {@link PreparedPrompt} 的构造函数
+ * 都通过全局缓存 {@link #global()} 获取编译后的模板，同一模板文本重复使用时不再重新解析。
+ * <p>
+ * 缓存同时按条目数量与模板总字符数限制大小，超出时按最近最少使用（LRU）的顺序淘汰，
+ * 因此即使模板是动态生成的，占用的内存也是有界的。
+ * 缓存按模板的哈希值分为16个段，每段各自加锁并平分容量，减少多线程下的锁竞争；
+ * 单个模板超过一段的字符数上限时直接编译，不进入缓存。
+ * <p>
+ * 创建缓存时可以指定渲染监听器，缓存编译的全部模板都会通知该监听器，见 {@link RenderListener}；
+ * 全局缓存不设置监听器。
+ *
+ * <h3>用法:</h3>
+ * <pre>{@code
+ * CompiledPrompt compiled = PromptCache.global().get(template);
+ * long hits = PromptCache.global().getHitCount();
+ * }</pre>
+ */
+public final class PromptCache {
+
+
+    // 全局缓存默认的最大条目数
+    public static final int DEFAULT_MAX_ENTRIES = 1024;
+
+    // 全局缓存默认的最大模板总字符数
+    public static final long DEFAULT_MAX_CHARS = 16L * 1024 * 1024;
+
+    private static final PromptCache GLOBAL = new PromptCache(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_CHARS);
+
+    // 模板文本到编译结果，条目按模板的字符数计算大小
+    private final SegmentedLru<CompiledPrompt> entries;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    // 缓存编译的模板使用的渲染监听器，为null时不通知
+    private final RenderListener renderListener;
+
+    /**
+     * 构造函数
+     *
+     * @param maxEntries 最大条目数
+     * @param maxChars   缓存中模板的最大总字符数
+     */
+    public PromptCache(int maxEntries, long maxChars) {
+        this(maxEntries, maxChars, null);
+    }
+
+    /**
+     * 构造函数，缓存编译的全部模板都会通知指定的渲染监听器
+     *
+     * @param maxEntries     最大条目数
+     * @param maxChars       缓存中模板的最大总字符数
+     * @param renderListener 渲染监听器，为null时不通知
+     */
+    public PromptCache(int maxEntries, long maxChars, RenderListener renderListener) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("最大条目数必须大于0");
+        }
+        if (maxChars <= 0) {
+            throw new IllegalArgumentException("最大字符数必须大于0");
+        }
+        this.entries = new SegmentedLru<>(maxEntries, maxChars, (template, compiled) -> template.length());
+        this.renderListener = renderListener;
+    }
+
+    /**
+     * 获取全局缓存
+     *
+     * @return 全局缓存实例
+     */
+    public static PromptCache global() {
+        return GLOBAL;
+    }
+
+    /**
+     * 获取模板的编译结果，缓存中没有时编译并放入缓存
+     *
+     * @param template prompt模板
+     * @return 编译后的模板
+     */
+    public CompiledPrompt get(String template) {
+        if (template == null) {
+            throw new IllegalArgumentException("Prompt模板不能为null");
+        }
+        CompiledPrompt compiled = entries.get(template);
+        if (compiled != null) {
+            hits.increment();
+            return compiled;
+        }
+        misses.increment();
+
+        // 在锁外编译，避免长模板的解析阻塞同一段的其他线程
+        compiled = CompiledPrompt.compile(template);
+        if (renderListener != null) {
+            compiled = compiled.withRenderListener(renderListener);
+        }
+        return entries.put(template, compiled);
+    }
+
+    /**
+     * 清空缓存，统计计数不受影响
+     */
+    public void clear() {
+        entries.clear();
+    }
+
+    /**
+     * 获取缓存中的条目数
+     *
+     * @return 条目数
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * 获取命中次数
+     *
+     * @return 命中次数
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * 获取未命中次数
+     *
+     * @return 未命中次数
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * 获取淘汰次数
+     *
+     * @return 淘汰次数
+     */
+    public long getEvictionCount() {
+        return entries.getEvictionCount();
+    }
+
+}
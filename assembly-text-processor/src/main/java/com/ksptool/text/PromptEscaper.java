@@ -0,0 +1,68 @@
+package com.ksptool.text;
+
+
+/**
+ * 参数值的转义策略。
+ * <p>
+ * 模板中的占位符可以通过 {@code |修饰符} 指定转义策略，修饰符在编译时解析为对应的转义器实例：
+ * <ul>
+ *   <li>{@code #{name|html}}: 使用内置的XSS过滤器，见 {@link #HTML}；</li>
+ *   <li>{@code #{name|json}}: 按JSON字符串规则转义，见 {@link #JSON}；</li>
+ *   <li>{@code #{name|raw}}: 不做任何转义，用于可信的片段，见 {@link #RAW}。</li>
+ * </ul>
+ * 没有修饰符的占位符仍由 {@code enableXssFilter} 开关决定是否使用XSS过滤；
+ * 指定了修饰符的占位符不受该开关影响。
+ *
+ * <h3>用法:</h3>
+ * <pre>{@code
+ * String template = "<p>#{title}</p><script>var data = \"#{payload|json}\";</script>#{footer|raw}";
+ * }</pre>
+ */
+@FunctionalInterface
+public interface PromptEscaper {
+
+
+    /**
+     * 内置的XSS过滤器，转义HTML特殊字符并移除常见的攻击向量
+     */
+    PromptEscaper HTML = XssEscaper::escape;
+
+    /**
+     * JSON字符串转义，转义引号、反斜杠与控制字符，并转义 {@code <}、{@code >}、{@code &}、{@code /}，
+     * 结果可以安全地放在 {@code <script>} 块中的字符串字面量里
+     */
+    PromptEscaper JSON = JsonEscaper::escape;
+
+    /**
+     * 不做任何转义
+     */
+    PromptEscaper RAW = value -> value;
+
+    /**
+     * 对参数值进行转义
+     *
+     * @param value 参数值，不为null
+     * @return 转义后的值，无需转义时可以直接返回输入本身
+     */
+    String escape(String value);
+
+    /**
+     * 根据占位符修饰符获取转义器
+     *
+     * @param modifier 修饰符名称
+     * @return 对应的转义器，未知的修饰符返回null
+     */
+    static PromptEscaper forModifier(String modifier) {
+        switch (modifier) {
+            case "html":
+                return HTML;
+            case "json":
+                return JSON;
+            case "raw":
+                return RAW;
+            default:
+                return null;
+        }
+    }
+
+}
@@ -0,0 +1,236 @@
+package com.ksptool.text;
+
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 具名模板的注册表，支持通过 {@code #{>name}} 包含其他已注册的模板片段。
+ * <p>
+ * 多个模板共用的大段内容（系统指令、安全声明等）只需注册一次、解析一次。
+ * 编译引用了片段的模板时，片段已编译的段被直接拼入结果，不会重新解析片段文本；
+ * 片段中的参数按名称合并到包含它的模板中。
+ * <p>
+ * 注册表记录模板之间的包含关系。重新注册或移除某个模板时，只有直接或间接包含它的模板的编译结果会失效，
+ * 并在下次获取时重新编译，其他模板不受影响。包含关系中存在环时编译会抛出异常。
+ * <p>
+ * 注册表是线程安全的，所有操作在注册表的锁内执行。
+ *
+ * <h3>用法:</h3>
+ * <pre>{@code
+ * PromptRegistry registry = new PromptRegistry()
+ *     .register("footer", "请遵守#{policy}。")
+ *     .register("answer", "问题: #{question}\n#{>footer}");
+ *
+ * String result = registry.get("answer").bind()
+ *     .setParameter("question", "...")
+ *     .setParameter("policy", "使用规范")
+ *     .execute();
+ * }</pre>
+ */
+public final class PromptRegistry {
+
+
+    // 模板名称到模板文本
+    private final Map<String, String> templates = new HashMap<>();
+
+    // 模板名称到编译结果，失效的模板不在其中
+    private final Map<String, CompiledPrompt> compiled = new HashMap<>();
+
+    // 模板名称到它直接包含的模板名称
+    private final Map<String, Set<String>> dependencies = new HashMap<>();
+
+    // 模板名称到直接包含它的模板名称
+    private final Map<String, Set<String>> dependents = new HashMap<>();
+
+    // 正在编译的模板，用于检测循环包含
+    private final Deque<String> compiling = new ArrayDeque<>();
+
+    /**
+     * 注册模板，已存在同名模板时替换它，并使所有直接或间接包含它的模板失效
+     * <p>
+     * 模板在首次获取时才编译。
+     *
+     * @param name     模板名称
+     * @param template 模板文本
+     * @return 当前PromptRegistry实例，支持链式调用
+     */
+    public synchronized PromptRegistry register(String name, String template) {
+        if (name == null) {
+            throw new IllegalArgumentException("模板名称不能为null");
+        }
+        if (template == null) {
+            throw new IllegalArgumentException("Prompt模板不能为null");
+        }
+        invalidate(name);
+        templates.put(name, template);
+        return this;
+    }
+
+    /**
+     * 移除模板，并使所有直接或间接包含它的模板失效
+     *
+     * @param name 模板名称
+     * @return 如果模板存在并被移除则返回true
+     */
+    public synchronized boolean remove(String name) {
+        if (name == null) {
+            throw new IllegalArgumentException("模板名称不能为null");
+        }
+        invalidate(name);
+        return templates.remove(name) != null;
+    }
+
+    /**
+     * 判断模板是否已注册
+     *
+     * @param name 模板名称
+     * @return 如果模板已注册则返回true
+     */
+    public synchronized boolean contains(String name) {
+        return templates.containsKey(name);
+    }
+
+    /**
+     * 获取模板的编译结果，包含的片段已被拼入，未编译或已失效时编译并缓存
+     *
+     * @param name 模板名称
+     * @return 编译后的模板
+     * @throws IllegalArgumentException 如果模板未注册
+     * @throws IllegalStateException    如果包含的片段未注册或存在循环包含
+     */
+    public synchronized CompiledPrompt get(String name) {
+        if (name == null) {
+            throw new IllegalArgumentException("模板名称不能为null");
+        }
+        if (!templates.containsKey(name)) {
+            throw new IllegalArgumentException("未找到模板: " + name);
+        }
+        CompiledPrompt result = compiled.get(name);
+        if (result != null) {
+            return result;
+        }
+        if (compiling.contains(name)) {
+            throw new IllegalStateException("模板存在循环包含: " + describeCycle(name));
+        }
+
+        compiling.push(name);
+        Set<String> included = new LinkedHashSet<>();
+        try {
+            result = CompiledPrompt.compile(templates.get(name), fragment -> include(included, fragment));
+        } finally {
+            compiling.pop();
+        }
+        compiled.put(name, result);
+        dependencies.put(name, included);
+        for (String fragment : included) {
+            dependents.computeIfAbsent(fragment, k -> new HashSet<>()).add(name);
+        }
+        return result;
+    }
+
+    /**
+     * 编译一个不注册的模板，其中的包含指令引用注册表中的模板片段
+     * <p>
+     * 编译结果不会被注册表缓存，片段更新后需要重新编译。
+     *
+     * @param template 模板文本
+     * @return 编译后的模板
+     * @throws IllegalStateException 如果包含的片段未注册或存在循环包含
+     */
+    public synchronized CompiledPrompt compile(String template) {
+        return CompiledPrompt.compile(template, this::includeFragment);
+    }
+
+    /**
+     * 获取直接或间接包含指定模板的已编译模板名称
+     *
+     * @param name 模板名称
+     * @return 依赖该模板的模板名称
+     */
+    public synchronized Set<String> getDependents(String name) {
+        Set<String> result = new LinkedHashSet<>();
+        collectDependents(name, result);
+        return result;
+    }
+
+    /**
+     * 获取已注册的模板数量
+     *
+     * @return 模板数量
+     */
+    public synchronized int size() {
+        return templates.size();
+    }
+
+    private CompiledPrompt include(Set<String> included, String fragment) {
+        included.add(fragment);
+        return includeFragment(fragment);
+    }
+
+    private CompiledPrompt includeFragment(String fragment) {
+        if (!templates.containsKey(fragment)) {
+            // 返回null时由编译器报告未找到片段
+            return null;
+        }
+        return get(fragment);
+    }
+
+    /**
+     * 使模板及所有直接或间接包含它的模板的编译结果失效
+     */
+    private void invalidate(String name) {
+        Set<String> stale = new LinkedHashSet<>();
+        stale.add(name);
+        collectDependents(name, stale);
+        for (String template : stale) {
+            compiled.remove(template);
+            Set<String> included = dependencies.remove(template);
+            if (included == null) {
+                continue;
+            }
+            for (String fragment : included) {
+                Set<String> users = dependents.get(fragment);
+                if (users != null) {
+                    users.remove(template);
+                }
+            }
+        }
+    }
+
+    private void collectDependents(String name, Set<String> result) {
+        Deque<String> pending = new ArrayDeque<>();
+        pending.push(name);
+        while (!pending.isEmpty()) {
+            Set<String> users = dependents.get(pending.pop());
+            if (users == null) {
+                continue;
+            }
+            for (String user : users) {
+                if (result.add(user)) {
+                    pending.push(user);
+                }
+            }
+        }
+    }
+
+    private String describeCycle(String name) {
+        List<String> path = new ArrayList<>();
+        for (String template : compiling) {
+            path.add(0, template);
+            if (template.equals(name)) {
+                break;
+            }
+        }
+        path.add(name);
+        return String.join(" -> ", path);
+    }
+
+}
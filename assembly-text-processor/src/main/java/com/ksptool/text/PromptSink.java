@@ -0,0 +1,222 @@
+package com.ksptool.text;
+
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * 渲染输出目标。
+ * <p>
+ * 模板渲染时只区分两种输出：编译期确定的文本段与运行期的参数值。
+ * 字符目标直接追加文本，字节目标写出编译时预先编码好的文本段，只对参数值做UTF-8编码。
+ */
+abstract class PromptSink {
+
+
+    /**
+     * 写出文本段
+     *
+     * @param text 文本内容
+     * @param utf8 文本内容预先编码的UTF-8字节
+     * @throws IOException 写入失败
+     */
+    abstract void literal(String text, byte[] utf8) throws IOException;
+
+    /**
+     * 写出参数值
+     *
+     * @param value 参数值
+     * @throws IOException 写入失败
+     */
+    abstract void value(String value) throws IOException;
+
+    /**
+     * 转义并写出参数值
+     *
+     * @param value   参数值，不为null
+     * @param escaper 转义器
+     * @throws IOException 写入失败
+     */
+    void value(String value, PromptEscaper escaper) throws IOException {
+        value(escaper.escape(value));
+    }
+
+    /**
+     * 渲染结束，写出缓冲的内容
+     *
+     * @throws IOException 写入失败
+     */
+    void finish() throws IOException {
+    }
+
+    static PromptSink of(Appendable out) {
+        return new AppendableSink(out);
+    }
+
+    static PromptSink utf8(ByteBuffer out) {
+        return new ByteBufferSink(out);
+    }
+
+    static PromptSink utf8(OutputStream out) {
+        return new OutputStreamSink(out);
+    }
+
+    static MeteredSink metered(PromptSink out) {
+        return new MeteredSink(out);
+    }
+
+    /**
+     * 统计输出字符数与转义耗时的输出目标，只在设置了渲染监听器时使用
+     */
+    static final class MeteredSink extends PromptSink {
+
+        private final PromptSink out;
+
+        // 写出的字符数
+        private long length;
+
+        // 转义参数值的累计耗时（纳秒）
+        private long escapeNanos;
+
+        private MeteredSink(PromptSink out) {
+            this.out = out;
+        }
+
+        @Override
+        void literal(String text, byte[] utf8) throws IOException {
+            length += text.length();
+            out.literal(text, utf8);
+        }
+
+        @Override
+        void value(String value) throws IOException {
+            length += value.length();
+            out.value(value);
+        }
+
+        @Override
+        void value(String value, PromptEscaper escaper) throws IOException {
+            long start = System.nanoTime();
+            String escaped = escaper.escape(value);
+            escapeNanos += System.nanoTime() - start;
+            value(escaped);
+        }
+
+        @Override
+        void finish() throws IOException {
+            out.finish();
+        }
+
+        long getLength() {
+            return length;
+        }
+
+        long getEscapeNanos() {
+            return escapeNanos;
+        }
+    }
+
+    /**
+     * 字符输出目标
+     */
+    private static final class AppendableSink extends PromptSink {
+
+        private final Appendable out;
+
+        private AppendableSink(Appendable out) {
+            this.out = out;
+        }
+
+        @Override
+        void literal(String text, byte[] utf8) throws IOException {
+            out.append(text);
+        }
+
+        @Override
+        void value(String value) throws IOException {
+            out.append(value);
+        }
+    }
+
+    /**
+     * UTF-8字节缓冲区输出目标，剩余空间不足时抛出 {@link java.nio.BufferOverflowException}
+     */
+    private static final class ByteBufferSink extends PromptSink {
+
+        private final ByteBuffer out;
+
+        private ByteBufferSink(ByteBuffer out) {
+            this.out = out;
+        }
+
+        @Override
+        void literal(String text, byte[] utf8) {
+            out.put(utf8);
+        }
+
+        @Override
+        void value(String value) {
+            Utf8.encode(value, out);
+        }
+    }
+
+    /**
+     * UTF-8字节流输出目标，参数值先编码到内部缓冲区再批量写出
+     */
+    private static final class OutputStreamSink extends PromptSink {
+
+        private static final int BUFFER_SIZE = 8192;
+
+        private final OutputStream out;
+
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+
+        private int position;
+
+        private OutputStreamSink(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        void literal(String text, byte[] utf8) throws IOException {
+            if (utf8.length > buffer.length - position) {
+                flushBuffer();
+                if (utf8.length > buffer.length) {
+                    // 较大的文本段直接写出，不经过缓冲区
+                    out.write(utf8);
+                    return;
+                }
+            }
+            System.arraycopy(utf8, 0, buffer, position, utf8.length);
+            position += utf8.length;
+        }
+
+        @Override
+        void value(String value) throws IOException {
+            int next = 0;
+            while (true) {
+                long state = Utf8.encode(value, next, buffer, position);
+                next = (int) (state >>> 32);
+                position = (int) state;
+                if (next >= value.length()) {
+                    return;
+                }
+                flushBuffer();
+            }
+        }
+
+        @Override
+        void finish() throws IOException {
+            flushBuffer();
+        }
+
+        private void flushBuffer() throws IOException {
+            if (position > 0) {
+                out.write(buffer, 0, position);
+                position = 0;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,35 @@
+package com.ksptool.text;
+
+
+/**
+ * 渲染监听器，每次渲染完成后被调用一次。
+ * <p>
+ * 通过 {@link CompiledPrompt#withRenderListener(RenderListener)} 设置在单个模板上，
+ * 或者通过 {@link PromptCache#PromptCache(int, long, RenderListener)} 设置在一个缓存编译的全部模板上，
+ * 未设置时渲染不产生任何额外开销。
+ * 监听器在渲染线程中同步调用，可能被多个线程同时调用，实现应当线程安全并尽快返回。
+ * 渲染失败（例如严格模式检查失败）时不会调用监听器；监听器抛出的异常会被忽略，不影响已经完成的渲染。
+ *
+ * <h3>用法:</h3>
+ * <pre>{@code
+ * RenderMetrics metrics = new RenderMetrics(256);
+ * CompiledPrompt compiled = PreparedPrompt.compile(template).withRenderListener(metrics);
+ * }</pre>
+ *
+ * @see RenderMetrics
+ */
+@FunctionalInterface
+public interface RenderListener {
+
+
+    /**
+     * 一次渲染完成
+     *
+     * @param prompt       被渲染的模板，{@link CompiledPrompt#getTemplate()} 可以作为模板的标识
+     * @param renderNanos  渲染耗时（纳秒），包括严格模式检查、转义与写出
+     * @param escapeNanos  其中转义参数值的耗时（纳秒）
+     * @param outputLength 输出的字符数（UTF-16代码单元），按UTF-8字节输出时同样按字符计算，不是写出的字节数
+     */
+    void onRender(CompiledPrompt prompt, long renderNanos, long escapeNanos, long outputLength);
+
+}
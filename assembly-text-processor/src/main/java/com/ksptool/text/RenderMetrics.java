@@ -0,0 +1,275 @@
+package com.ksptool.text;
+
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 按模板统计渲染指标的内存实现。
+ * <p>
+ * 以模板文本为标识，记录每个模板的渲染次数、总耗时、转义耗时，以及渲染耗时与输出字符数的分布。
+ * 输出大小总是按字符（UTF-16代码单元）统计，按UTF-8字节输出的渲染也不例外，同一模板的分布因此可以相互比较。
+ * 分布使用以2为底的对数分桶直方图，记录只是一次原子递增，不分配对象；百分位数取所在桶的上界，误差不超过一倍。
+ * 所有指标都是实时的，可以随时轮询或导出。
+ * <p>
+ * 统计的模板数量有上限，达到上限后新出现的模板不再统计，只计入 {@link #getDroppedCount()}，
+ * 因此动态生成的模板不会使内存无限增长。
+ *
+ * <h3>用法:</h3>
+ * <pre>{@code
+ * RenderMetrics metrics = new RenderMetrics(256);
+ * PromptCache cache = new PromptCache(1024, 16L * 1024 * 1024, metrics);
+ * String result = cache.get(template).bind().setParameter("name", "张三").execute();
+ *
+ * for (String template : metrics.getTemplates()) {
+ *     RenderMetrics.TemplateMetrics stats = metrics.get(template);
+ *     long p99 = stats.getLatency().getValueAtPercentile(99);
+ * }
+ * }</pre>
+ */
+public final class RenderMetrics implements RenderListener {
+
+
+    // 最多统计的模板数量
+    private final int maxTemplates;
+
+    // 模板文本到统计指标
+    private final Map<String, TemplateMetrics> templates = new ConcurrentHashMap<>();
+
+    // 因超出模板数量上限而未统计的渲染次数
+    private final LongAdder dropped = new LongAdder();
+
+    /**
+     * 构造函数
+     *
+     * @param maxTemplates 最多统计的模板数量
+     */
+    public RenderMetrics(int maxTemplates) {
+        if (maxTemplates <= 0) {
+            throw new IllegalArgumentException("最大模板数量必须大于0");
+        }
+        this.maxTemplates = maxTemplates;
+    }
+
+    @Override
+    public void onRender(CompiledPrompt prompt, long renderNanos, long escapeNanos, long outputLength) {
+        TemplateMetrics metrics = templates.get(prompt.getTemplate());
+        if (metrics == null) {
+            if (templates.size() >= maxTemplates) {
+                dropped.increment();
+                return;
+            }
+            metrics = templates.computeIfAbsent(prompt.getTemplate(), k -> new TemplateMetrics());
+        }
+        metrics.record(renderNanos, escapeNanos, outputLength);
+    }
+
+    /**
+     * 获取已统计的模板
+     *
+     * @return 模板文本的集合
+     */
+    public Set<String> getTemplates() {
+        return Collections.unmodifiableSet(templates.keySet());
+    }
+
+    /**
+     * 获取模板的统计指标
+     *
+     * @param template 模板文本
+     * @return 统计指标，模板没有被统计时返回null
+     */
+    public TemplateMetrics get(String template) {
+        if (template == null) {
+            throw new IllegalArgumentException("Prompt模板不能为null");
+        }
+        return templates.get(template);
+    }
+
+    /**
+     * 获取因超出模板数量上限而未统计的渲染次数
+     *
+     * @return 未统计的渲染次数
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * 清除所有统计指标
+     */
+    public void reset() {
+        templates.clear();
+        dropped.reset();
+    }
+
+    /**
+     * 单个模板的统计指标
+     */
+    public static final class TemplateMetrics {
+
+        private final LongAdder renderNanos = new LongAdder();
+
+        private final LongAdder escapeNanos = new LongAdder();
+
+        // 渲染耗时（纳秒）的分布
+        private final Histogram latency = new Histogram();
+
+        // 输出字符数的分布
+        private final Histogram outputLength = new Histogram();
+
+        private TemplateMetrics() {
+        }
+
+        private void record(long renderNanos, long escapeNanos, long outputLength) {
+            this.renderNanos.add(renderNanos);
+            this.escapeNanos.add(escapeNanos);
+            this.latency.record(renderNanos);
+            this.outputLength.record(outputLength);
+        }
+
+        /**
+         * 获取渲染次数
+         *
+         * @return 渲染次数
+         */
+        public long getRenderCount() {
+            return latency.getCount();
+        }
+
+        /**
+         * 获取渲染的总耗时
+         *
+         * @return 总耗时（纳秒）
+         */
+        public long getTotalRenderNanos() {
+            return renderNanos.sum();
+        }
+
+        /**
+         * 获取转义参数值的总耗时
+         *
+         * @return 总耗时（纳秒）
+         */
+        public long getTotalEscapeNanos() {
+            return escapeNanos.sum();
+        }
+
+        /**
+         * 获取渲染耗时（纳秒）的分布
+         *
+         * @return 直方图
+         */
+        public Histogram getLatency() {
+            return latency;
+        }
+
+        /**
+         * 获取输出字符数的分布
+         *
+         * @return 直方图
+         */
+        public Histogram getOutputLength() {
+            return outputLength;
+        }
+    }
+
+    /**
+     * 以2为底的对数分桶直方图，第0个桶记录0，第i个桶记录 [2^(i-1), 2^i) 范围内的值
+     */
+    public static final class Histogram {
+
+        // 桶的数量，足以容纳任意非负long
+        private static final int BUCKET_COUNT = 64;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+
+        private final LongAdder count = new LongAdder();
+
+        private final AtomicLong max = new AtomicLong();
+
+        private Histogram() {
+        }
+
+        private void record(long value) {
+            long clamped = Math.max(0, value);
+            buckets.incrementAndGet(bucketOf(clamped));
+            count.increment();
+            long current;
+            while (clamped > (current = max.get()) && !max.compareAndSet(current, clamped)) {
+                // 其他线程更新了最大值，重新比较
+            }
+        }
+
+        private static int bucketOf(long value) {
+            return Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(value));
+        }
+
+        /**
+         * 获取记录的次数
+         *
+         * @return 记录次数
+         */
+        public long getCount() {
+            return count.sum();
+        }
+
+        /**
+         * 获取记录的最大值
+         *
+         * @return 最大值，没有记录时返回0
+         */
+        public long getMax() {
+            return max.get();
+        }
+
+        /**
+         * 获取各个桶的计数
+         *
+         * @return 桶计数的副本，第i个元素对应 [2^(i-1), 2^i) 范围内的值
+         */
+        public long[] getBucketCounts() {
+            long[] result = new long[BUCKET_COUNT];
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                result[i] = buckets.get(i);
+            }
+            return result;
+        }
+
+        /**
+         * 获取百分位数的近似值
+         *
+         * @param percentile 百分位，取值范围 (0, 100]
+         * @return 百分位数所在桶的上界（不超过记录的最大值），没有记录时返回0
+         */
+        public long getValueAtPercentile(double percentile) {
+            if (!(percentile > 0 && percentile <= 100)) {
+                throw new IllegalArgumentException("百分位必须在(0, 100]范围内: " + percentile);
+            }
+            long[] counts = getBucketCounts();
+            long total = 0;
+            for (long bucketCount : counts) {
+                total += bucketCount;
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long target = (long) Math.ceil(total * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= target) {
+                    long upperBound = i == 0 ? 0 : (i >= 63 ? Long.MAX_VALUE : (1L << i) - 1);
+                    return Math.min(upperBound, getMax());
+                }
+            }
+            return getMax();
+        }
+    }
+
+}
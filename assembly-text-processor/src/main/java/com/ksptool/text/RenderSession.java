@@ -0,0 +1,428 @@
+package com.ksptool.text;
+
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+/**
+ * 增量渲染会话。
+ * <p>
+ * 会话把模板的段程序按先序展开：条件块展开为条件本身与块内的各个段，块内的段与顶层的段一样单独缓存，
+ * 文本段、占位符段与循环段各自缓存上一次渲染的结果，并记录依赖的槽位（循环段依赖块标记本身与块内全部参数）。
+ * 修改参数只会把依赖该参数的段标记为待渲染；再次渲染时从头判断各条件，只重新转义、渲染到达的待渲染段，
+ * 其余段直接复用缓存的结果，条件不成立的块内的段在条件成立之前不会被渲染。
+ * 因此即使整个模板位于一个条件块中，在多轮对话这类每次只修改一两个参数的场景中，
+ * 每次渲染的转义开销也只与变化的部分成正比，只有条件判断与最后拼接各段结果是线性的。
+ * <p>
+ * 设置的值与当前值相同时不会使任何段失效。循环块的内容不展开，整个循环段作为一个缓存单位；
+ * 循环块的元素无法比较，每次调用 {@link #setItems(String, Iterable)} 都会使依赖它的段失效，元素内容变化后需要重新调用。
+ * <p>
+ * 延迟参数在第一次被渲染用到时求值，求值结果在之后的渲染中复用，直到参数被重新设置，
+ * 这与 {@link PromptBinding} 每次渲染都重新求值不同。会话支持 {@link EscapeCache}，
+ * 但不通知渲染监听器。
+ * <p>
+ * 严格模式与 {@link PromptBinding} 相同，循环块的元素缺少参数时同样抛出异常；
+ * 非严格模式下渲染的循环段在之后的严格模式渲染中会重新渲染一次以完成检查。会话不是线程安全的。
+ *
+ * <h3>用法:</h3>
+ * <pre>{@code
+ * RenderSession session = CHAT.session()
+ *     .setParameter("system", system)
+ *     .setParameter("history", history);
+ *
+ * for (String message : messages) {
+ *     String prompt = session.setParameter("message", message).render();
+ *     // 只有引用了message的段被重新渲染
+ * }
+ * }</pre>
+ *
+ * @see CompiledPrompt#session()
+ */
+public final class RenderSession {
+
+
+    // 会话使用的模板
+    private final CompiledPrompt prompt;
+
+    // 展开的段程序
+    private final CompiledPrompt.Outline outline;
+
+    // 按槽位存放的参数值
+    private final String[] values;
+
+    // 按槽位标记参数是否已设置
+    private final boolean[] bound;
+
+    // 按槽位存放的尚未求值的延迟参数，首次设置延迟参数时才创建
+    private Supplier<? extends CharSequence>[] suppliers;
+
+    // 按槽位存放的循环块元素，首次设置循环块元素时才创建
+    private Iterable<? extends Map<String, String>>[] items;
+
+    // 槽位到依赖它的节点下标
+    private final int[][] dependents;
+
+    // 每个节点上一次渲染的结果，条件节点为null
+    private final String[] rendered;
+
+    // 每个节点是否需要重新渲染
+    private final boolean[] dirty;
+
+    // 需要重新渲染的节点的数量
+    private int dirtyCount;
+
+    // 每个循环节点上一次是否在非严格模式下渲染，这样的结果没有经过循环块元素的检查
+    private final boolean[] lenient;
+
+    // 上一次渲染到达的输出节点，前visibleCount个有效
+    private final int[] visible;
+
+    private int visibleCount;
+
+    // 到达的节点结果的总长度
+    private long length;
+
+    // 是否启用XSS过滤
+    private boolean enableXssFilter = true;
+
+    // XSS过滤使用的转义结果缓存，为null时不使用缓存
+    private EscapeCache escapeCache;
+
+    // 渲染单个节点时复用的缓冲区
+    private final StringBuilder buffer = new StringBuilder();
+
+    RenderSession(CompiledPrompt prompt) {
+        this.prompt = prompt;
+        this.outline = prompt.outline();
+        this.values = new String[prompt.getSlotCount()];
+        this.bound = new boolean[values.length];
+
+        int nodeCount = outline.size();
+        this.rendered = new String[nodeCount];
+        this.dirty = new boolean[nodeCount];
+        this.lenient = new boolean[nodeCount];
+        this.visible = new int[nodeCount];
+
+        List<List<Integer>> slotNodes = new ArrayList<>();
+        for (int slot = 0; slot < values.length; slot++) {
+            slotNodes.add(new ArrayList<>());
+        }
+        for (int node = 0; node < nodeCount; node++) {
+            if (outline.isConditional(node)) {
+                // 条件节点不产生输出，每次渲染时重新判断
+                continue;
+            }
+            String literal = outline.getLiteral(node);
+            if (literal != null) {
+                // 文本节点不依赖任何参数，结果固定
+                rendered[node] = literal;
+                continue;
+            }
+            markDirty(node);
+            for (int slot : outline.getSlots(node)) {
+                slotNodes.get(slot).add(node);
+            }
+        }
+        this.dependents = new int[values.length][];
+        for (int slot = 0; slot < values.length; slot++) {
+            dependents[slot] = slotNodes.get(slot).stream().mapToInt(Integer::intValue).toArray();
+        }
+    }
+
+    /**
+     * 按槽位设置参数值，只有依赖该槽位的段会被重新渲染
+     *
+     * @param slot  参数槽位，见 {@link CompiledPrompt#slotOf(String)}
+     * @param value 参数值
+     * @return 当前RenderSession实例，支持链式调用
+     */
+    public RenderSession set(int slot, String value) {
+        if (slot < 0 || slot >= values.length) {
+            throw new IllegalArgumentException("参数槽位超出范围: " + slot);
+        }
+        if (bound[slot] && Objects.equals(values[slot], value)
+                && (suppliers == null || suppliers[slot] == null) && (items == null || items[slot] == null)) {
+            return this;
+        }
+        values[slot] = value;
+        bound[slot] = true;
+        if (suppliers != null) {
+            suppliers[slot] = null;
+        }
+        if (items != null) {
+            items[slot] = null;
+        }
+        markDependents(slot);
+        return this;
+    }
+
+    /**
+     * 设置参数值，模板中没有出现的参数不影响渲染结果，会被忽略
+     *
+     * @param name  参数名称
+     * @param value 参数值
+     * @return 当前RenderSession实例，支持链式调用
+     */
+    public RenderSession setParameter(String name, String value) {
+        if (name == null) {
+            throw new IllegalArgumentException("参数名不能为null");
+        }
+        int slot = prompt.slotOf(name);
+        if (slot != -1) {
+            set(slot, value);
+        }
+        return this;
+    }
+
+    /**
+     * 设置延迟计算的参数值，依赖该参数的段总是会被重新渲染
+     * <p>
+     * 提供者只在渲染实际到达引用该参数的占位符或条件时才被调用，并且只调用一次，
+     * 求值结果在之后的渲染中复用，直到参数被重新设置。提供者返回null时按null值处理。
+     *
+     * @param name     参数名称
+     * @param supplier 参数值的提供者
+     * @return 当前RenderSession实例，支持链式调用
+     * @see PromptBinding#setLazyParameter(String, Supplier)
+     */
+    @SuppressWarnings("unchecked")
+    public RenderSession setLazyParameter(String name, Supplier<? extends CharSequence> supplier) {
+        if (name == null) {
+            throw new IllegalArgumentException("参数名不能为null");
+        }
+        if (supplier == null) {
+            throw new IllegalArgumentException("参数值提供者不能为null");
+        }
+        int slot = prompt.slotOf(name);
+        if (slot == -1) {
+            return this;
+        }
+        if (suppliers == null) {
+            suppliers = (Supplier<? extends CharSequence>[]) new Supplier<?>[values.length];
+        }
+        values[slot] = null;
+        bound[slot] = true;
+        suppliers[slot] = supplier;
+        if (items != null) {
+            items[slot] = null;
+        }
+        markDependents(slot);
+        return this;
+    }
+
+    /**
+     * 设置循环块的元素，依赖该循环块的段总是会被重新渲染
+     *
+     * @param name  循环块名称
+     * @param items 循环块的元素
+     * @return 当前RenderSession实例，支持链式调用
+     * @see PromptBinding#setItems(String, Iterable)
+     */
+    @SuppressWarnings("unchecked")
+    public RenderSession setItems(String name, Iterable<? extends Map<String, String>> items) {
+        if (name == null) {
+            throw new IllegalArgumentException("参数名不能为null");
+        }
+        if (items == null) {
+            throw new IllegalArgumentException("循环元素不能为null");
+        }
+        int slot = prompt.slotOf(name);
+        if (slot == -1) {
+            return this;
+        }
+        if (this.items == null) {
+            this.items = (Iterable<? extends Map<String, String>>[]) new Iterable<?>[values.length];
+        }
+        values[slot] = null;
+        bound[slot] = true;
+        if (suppliers != null) {
+            suppliers[slot] = null;
+        }
+        this.items[slot] = items;
+        markDependents(slot);
+        return this;
+    }
+
+    /**
+     * 批量设置参数值
+     *
+     * @param params 参数映射
+     * @return 当前RenderSession实例，支持链式调用
+     */
+    public RenderSession setParameters(Map<String, String> params) {
+        if (params == null) {
+            throw new IllegalArgumentException("参数映射不能为null");
+        }
+        for (Map.Entry<String, String> entry : params.entrySet()) {
+            setParameter(entry.getKey(), entry.getValue());
+        }
+        return this;
+    }
+
+    /**
+     * 启用或禁用XSS过滤，设置改变时所有参数相关的段都会被重新渲染
+     *
+     * @param enable 是否启用
+     * @return 当前RenderSession实例，支持链式调用
+     */
+    public RenderSession enableXssFilter(boolean enable) {
+        if (enable == enableXssFilter) {
+            return this;
+        }
+        enableXssFilter = enable;
+        markAll();
+        return this;
+    }
+
+    /**
+     * 设置XSS过滤使用的转义结果缓存，设置改变时所有参数相关的段都会被重新渲染
+     *
+     * @param cache 转义结果缓存，为null时不使用缓存
+     * @return 当前RenderSession实例，支持链式调用
+     * @see PromptBinding#setEscapeCache(EscapeCache)
+     */
+    public RenderSession setEscapeCache(EscapeCache cache) {
+        if (cache != null && cache.getEscaper() != PromptEscaper.HTML) {
+            throw new IllegalArgumentException("转义结果缓存必须使用XSS过滤器");
+        }
+        if (cache == escapeCache) {
+            return this;
+        }
+        escapeCache = cache;
+        markAll();
+        return this;
+    }
+
+    /**
+     * 获取会话使用的模板
+     *
+     * @return 编译后的模板
+     */
+    public CompiledPrompt getPrompt() {
+        return prompt;
+    }
+
+    /**
+     * 渲染并返回最终的prompt，只重新渲染参数发生变化的段
+     *
+     * @param strictMode 严格模式，如果为true则在有未设置的参数时抛出异常
+     * @return 替换后的prompt
+     * @throws IllegalStateException 如果strictMode为true且存在未设置的参数
+     */
+    public String render(boolean strictMode) {
+        update(strictMode);
+        StringBuilder result = new StringBuilder((int) Math.min(Integer.MAX_VALUE, length));
+        for (int i = 0; i < visibleCount; i++) {
+            result.append(rendered[visible[i]]);
+        }
+        return result.toString();
+    }
+
+    /**
+     * 渲染并返回最终的prompt（默认严格模式）
+     *
+     * @return 替换后的prompt
+     * @throws IllegalStateException 如果存在未设置的参数
+     */
+    public String render() {
+        return render(true);
+    }
+
+    /**
+     * 渲染并将结果写入输出目标，只重新渲染参数发生变化的段
+     *
+     * @param out        输出目标
+     * @param strictMode 严格模式，如果为true则在有未设置的参数时抛出异常（此时不会写出任何内容）
+     * @throws IOException           写入输出目标失败
+     * @throws IllegalStateException 如果strictMode为true且存在未设置的参数
+     */
+    public void render(Appendable out, boolean strictMode) throws IOException {
+        if (out == null) {
+            throw new IllegalArgumentException("输出目标不能为null");
+        }
+        update(strictMode);
+        for (int i = 0; i < visibleCount; i++) {
+            out.append(rendered[visible[i]]);
+        }
+    }
+
+    /**
+     * 获取等待重新渲染的段的数量，包括位于条件不成立的块内、尚未渲染的段
+     */
+    int getDirtyCount() {
+        return dirtyCount;
+    }
+
+    private void markDirty(int node) {
+        if (!dirty[node]) {
+            dirty[node] = true;
+            dirtyCount++;
+        }
+    }
+
+    private void markDependents(int slot) {
+        for (int node : dependents[slot]) {
+            markDirty(node);
+        }
+    }
+
+    /**
+     * 将所有参数相关的段标记为待渲染
+     */
+    private void markAll() {
+        for (int[] nodes : dependents) {
+            for (int node : nodes) {
+                markDirty(node);
+            }
+        }
+    }
+
+    /**
+     * 从头判断各条件，重新渲染到达的待渲染段，并记录到达的输出节点
+     */
+    private void update(boolean strictMode) {
+        if (strictMode) {
+            prompt.checkBound(values, bound, suppliers);
+        }
+        PromptEscaper escaper = !enableXssFilter ? PromptEscaper.RAW
+                : escapeCache != null ? escapeCache : PromptEscaper.HTML;
+        PromptSink sink = PromptSink.of(buffer);
+        visibleCount = 0;
+        length = 0;
+        int node = 0;
+        while (node < rendered.length) {
+            if (outline.isConditional(node)) {
+                node = outline.test(node, values, suppliers) ? node + 1 : outline.getEnd(node);
+                continue;
+            }
+            if (dirty[node] || (strictMode && lenient[node])) {
+                renderNode(node, escaper, strictMode, sink);
+            }
+            visible[visibleCount++] = node;
+            length += rendered[node].length();
+            node++;
+        }
+    }
+
+    private void renderNode(int node, PromptEscaper escaper, boolean strictMode, PromptSink sink) {
+        buffer.setLength(0);
+        try {
+            outline.render(node, values, bound, suppliers, items, escaper, strictMode, sink);
+        } catch (IOException e) {
+            // StringBuilder不会抛出IOException
+            throw new UncheckedIOException(e);
+        }
+        rendered[node] = buffer.toString();
+        lenient[node] = !strictMode && outline.isLoop(node);
+        if (dirty[node]) {
+            dirty[node] = false;
+            dirtyCount--;
+        }
+    }
+
+}
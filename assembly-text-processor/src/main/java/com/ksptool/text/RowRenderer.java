@@ -0,0 +1,107 @@
+package com.ksptool.text;
+
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * 批量渲染时逐行使用的渲染器。
+ * <p>
+ * 每行参数覆盖在基础参数之上，槽位数组与输出缓冲区在各行之间复用，不为每行创建新的绑定对象。
+ * 渲染器只能在单个线程中使用，并行渲染时每个任务各自创建一个。
+ */
+final class RowRenderer {
+
+
+    private final CompiledPrompt prompt;
+
+    // 基础参数（按槽位）
+    private final String[] baseValues;
+
+    private final boolean[] baseBound;
+
+    // 基础参数中的延迟参数（按槽位），没有延迟参数时为null
+    private final Supplier<? extends CharSequence>[] baseSuppliers;
+
+    // 基础参数中的循环块元素（按槽位），没有循环块元素时为null
+    private final Iterable<? extends Map<String, String>>[] baseItems;
+
+    private final PromptEscaper defaultEscaper;
+
+    private final boolean strictMode;
+
+    // 当前行的参数（按槽位），各行复用
+    private final String[] values;
+
+    private final boolean[] bound;
+
+    private final Supplier<? extends CharSequence>[] suppliers;
+
+    private final Iterable<? extends Map<String, String>>[] items;
+
+    // 复用的输出缓冲区
+    private final StringBuilder buffer;
+
+    RowRenderer(CompiledPrompt prompt, String[] baseValues, boolean[] baseBound,
+                Supplier<? extends CharSequence>[] baseSuppliers, Iterable<? extends Map<String, String>>[] baseItems,
+                PromptEscaper defaultEscaper, boolean strictMode) {
+        this.prompt = prompt;
+        this.baseValues = baseValues;
+        this.baseBound = baseBound;
+        this.baseSuppliers = baseSuppliers;
+        this.baseItems = baseItems;
+        this.defaultEscaper = defaultEscaper;
+        this.strictMode = strictMode;
+        this.values = new String[baseValues.length];
+        this.bound = new boolean[baseValues.length];
+        this.suppliers = baseSuppliers == null ? null : baseSuppliers.clone();
+        this.items = baseItems == null ? null : baseItems.clone();
+        this.buffer = new StringBuilder(prompt.getTemplate().length());
+    }
+
+    /**
+     * 渲染一行并返回结果字符串
+     */
+    String render(Map<String, String> row) {
+        buffer.setLength(0);
+        render(row, buffer);
+        return buffer.toString();
+    }
+
+    /**
+     * 渲染一行并直接写入输出目标
+     */
+    void render(Map<String, String> row, Appendable out) {
+        load(row);
+        try {
+            prompt.render(values, bound, suppliers, items, defaultEscaper, strictMode, PromptSink.of(out));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 将一行参数覆盖到基础参数上，只按模板中的槽位查找，行中多余的参数被忽略
+     */
+    private void load(Map<String, String> row) {
+        if (row == null) {
+            throw new IllegalArgumentException("参数行不能为null");
+        }
+        for (int slot = 0; slot < values.length; slot++) {
+            String name = prompt.getParameterName(slot);
+            String value = row.get(name);
+            boolean overridden = value != null || row.containsKey(name);
+            values[slot] = overridden ? value : baseValues[slot];
+            bound[slot] = overridden || baseBound[slot];
+            if (suppliers != null) {
+                suppliers[slot] = overridden ? null : baseSuppliers[slot];
+            }
+            if (items != null) {
+                items[slot] = overridden ? null : baseItems[slot];
+            }
+        }
+    }
+
+}
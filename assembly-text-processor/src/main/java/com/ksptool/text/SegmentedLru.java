@@ -0,0 +1,160 @@
+package com.ksptool.text;
+
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongBiFunction;
+
+/**
+ * 以字符串为键、同时按条目数量与字符总数限制大小的分段LRU缓存，{@link PromptCache} 与 {@link EscapeCache} 共用。
+ * <p>
+ * 缓存按键的哈希值分为16个段，每段是一个按访问顺序排列的 {@link LinkedHashMap}，各自加锁并平分容量，
+ * 减少多线程下的锁竞争。超出容量时按最近最少使用的顺序淘汰；单个条目超过一段的字符数上限时不进入缓存。
+ * 条目占用的字符数由构造时传入的函数计算，命中与未命中的统计由使用方负责。
+ *
+ * @param <V> 缓存的值的类型
+ */
+final class SegmentedLru<V> {
+
+
+    // 分段数量，必须是2的幂
+    private static final int SEGMENT_COUNT = 16;
+
+    private final List<Segment> segments = new ArrayList<>(SEGMENT_COUNT);
+
+    // 计算条目占用的字符数
+    private final ToLongBiFunction<String, V> weigher;
+
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * 构造函数，参数由使用方校验
+     *
+     * @param maxEntries 最大条目数
+     * @param maxChars   最大总字符数
+     * @param weigher    计算条目占用的字符数
+     */
+    SegmentedLru(int maxEntries, long maxChars, ToLongBiFunction<String, V> weigher) {
+        this.weigher = weigher;
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            // 向上取整，保证总容量不小于指定值
+            segments.add(new Segment((maxEntries + SEGMENT_COUNT - 1) / SEGMENT_COUNT,
+                    (maxChars + SEGMENT_COUNT - 1) / SEGMENT_COUNT));
+        }
+    }
+
+    /**
+     * 获取缓存的值
+     *
+     * @param key 键
+     * @return 缓存的值，没有时返回null
+     */
+    V get(String key) {
+        return segmentFor(key).get(key);
+    }
+
+    /**
+     * 放入缓存，其他线程已经放入了相同的键时保留已有的值
+     *
+     * @param key   键
+     * @param value 值
+     * @return 缓存中最终的值（已有的值或放入的值）；条目超过一段的字符数上限时不放入缓存，直接返回value
+     */
+    V put(String key, V value) {
+        return segmentFor(key).put(key, value);
+    }
+
+    /**
+     * 清空缓存
+     */
+    void clear() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    /**
+     * 获取缓存中的条目数
+     */
+    int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /**
+     * 获取淘汰次数
+     */
+    long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    private Segment segmentFor(String key) {
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16);
+        return segments.get(hash & (SEGMENT_COUNT - 1));
+    }
+
+    /**
+     * 缓存段，内部是按访问顺序排列的LinkedHashMap
+     */
+    private final class Segment {
+
+        private final int maxEntries;
+
+        private final long maxChars;
+
+        private final LinkedHashMap<String, V> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+        private long chars;
+
+        private Segment(int maxEntries, long maxChars) {
+            this.maxEntries = maxEntries;
+            this.maxChars = maxChars;
+        }
+
+        private synchronized V get(String key) {
+            return entries.get(key);
+        }
+
+        private synchronized V put(String key, V value) {
+            long weight = weigher.applyAsLong(key, value);
+            if (weight > maxChars) {
+                return value;
+            }
+            V existing = entries.putIfAbsent(key, value);
+            if (existing != null) {
+                return existing;
+            }
+            chars += weight;
+            Iterator<Map.Entry<String, V>> iterator = entries.entrySet().iterator();
+            while ((entries.size() > maxEntries || chars > maxChars) && iterator.hasNext()) {
+                Map.Entry<String, V> eldest = iterator.next();
+                if (eldest.getKey() == key) {
+                    // 刚放入的条目不淘汰
+                    continue;
+                }
+                chars -= weigher.applyAsLong(eldest.getKey(), eldest.getValue());
+                iterator.remove();
+                evictions.increment();
+            }
+            return value;
+        }
+
+        private synchronized void clear() {
+            entries.clear();
+            chars = 0;
+        }
+
+        private synchronized int size() {
+            return entries.size();
+        }
+    }
+
+}
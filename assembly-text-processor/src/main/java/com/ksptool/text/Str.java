@@ -4,7 +4,6 @@ import java.time.DateTimeException;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
-import java.time.format.DateTimeFormatter;
 import java.util.Objects;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -31,9 +30,10 @@ public class Str {
         "(?:[a-zA-Z0-9-]+\\.)+[a-zA-Z]{2,7}$"
     );
 
-    private static final String DEFAULT_DATE_TIME_FORMAT = "yyyy-MM-dd HH:mm:ss";
-    private static final String DEFAULT_DATE_FORMAT = "yyyy-MM-dd";
-    private static final String DEFAULT_TIME_FORMAT = "HH:mm:ss";
+    // 默认格式由DateTimeParser直接解析，不经过DateTimeFormatter
+    private static final String DEFAULT_DATE_TIME_FORMAT = DateTimeParser.DATE_TIME_FORMAT;
+    private static final String DEFAULT_DATE_FORMAT = DateTimeParser.DATE_FORMAT;
+    private static final String DEFAULT_TIME_FORMAT = DateTimeParser.TIME_FORMAT;
 
     
     /**
@@ -45,13 +45,8 @@ public class Str {
         if(isBlank(str)){
             return false;
         }
-        //校验是否为整数
-        try{
-            Integer.parseInt(str);
-            return true;
-        }catch(NumberFormatException e){
-            return false;
-        }
+        //校验是否为整数 逐字符扫描，非法时不创建异常
+        return NumberScanner.parseInt(str, Integer.MIN_VALUE, Integer.MAX_VALUE) != NumberScanner.INVALID;
     }
     
     /**
@@ -63,13 +58,8 @@ public class Str {
         if(isBlank(str)){
             return false;
         }
-        //校验是否为整数
-        try{
-            Long.parseLong(str);
-            return true;
-        }catch(NumberFormatException e){
-            return false;
-        }
+        //校验是否为长整数
+        return NumberScanner.isLong(str);
     }
 
     /**
@@ -81,13 +71,8 @@ public class Str {
         if(isBlank(str)){
             return false;
         }
-        //校验是否为整数
-        try{
-            Double.parseDouble(str);
-            return true;
-        }catch(NumberFormatException e){
-            return false;
-        }
+        //校验是否为浮点数
+        return NumberScanner.isDouble(str);
     }
 
     /**
@@ -154,7 +139,7 @@ public class Str {
         }
         //校验是否为日期时间 LDT
         try{
-            LocalDateTime.parse(str,DateTimeFormatter.ofPattern(format));
+            DateTimeParser.parseDateTime(str,format);
             return true;
         }catch(DateTimeException e){
             return false;
@@ -172,7 +157,7 @@ public class Str {
         }
         //校验是否为日期
         try{
-            LocalDate.parse(str,DateTimeFormatter.ofPattern(format));
+            DateTimeParser.parseDate(str,format);
             return true;
         }catch(DateTimeException e){
             return false;
@@ -190,7 +175,7 @@ public class Str {
         }
         //校验是否为时间 使用LDT
         try{
-            LocalTime.parse(str,DateTimeFormatter.ofPattern(format));
+            DateTimeParser.parseTime(str,format);
             return true;
         }catch(DateTimeException e){
             return false;
@@ -483,7 +468,7 @@ public class Str {
         if(isBlank(str)){
             throw new DateTimeException("Cannot parse blank string to LocalDate");
         }
-        return LocalDate.parse(str, DateTimeFormatter.ofPattern(format));
+        return DateTimeParser.parseDate(str, format);
     }
 
     /**
@@ -507,7 +492,7 @@ public class Str {
         if(isBlank(str)){
             throw new DateTimeException("Cannot parse blank string to LocalDateTime");
         }
-        return LocalDateTime.parse(str, DateTimeFormatter.ofPattern(format));
+        return DateTimeParser.parseDateTime(str, format);
     }
 
     /**
@@ -531,7 +516,7 @@ public class Str {
         if(isBlank(str)){
             throw new DateTimeException("Cannot parse blank string to LocalTime");
         }
-        return LocalTime.parse(str, DateTimeFormatter.ofPattern(format));
+        return DateTimeParser.parseTime(str, format);
     }
 
     // ==================== 安全转换方法（不抛异常，需提供默认值） ====================
@@ -546,11 +531,12 @@ public class Str {
         if(isBlank(str)){
             return defaultValue;
         }
-        try{
-            return Integer.parseInt(str);
-        }catch(NumberFormatException e){
+        //非法时不创建异常
+        long value = NumberScanner.parseInt(str, Integer.MIN_VALUE, Integer.MAX_VALUE);
+        if (value == NumberScanner.INVALID) {
             return defaultValue;
         }
+        return (int) value;
     }
 
     /**
@@ -563,11 +549,8 @@ public class Str {
         if(isBlank(str)){
             return defaultValue;
         }
-        try{
-            return Long.parseLong(str);
-        }catch(NumberFormatException e){
-            return defaultValue;
-        }
+        //先校验再解析，非法时不创建异常
+        return NumberScanner.isLong(str) ? Long.valueOf(str) : defaultValue;
     }
 
     /**
@@ -580,11 +563,8 @@ public class Str {
         if(isBlank(str)){
             return defaultValue;
         }
-        try{
-            return Double.parseDouble(str);
-        }catch(NumberFormatException e){
-            return defaultValue;
-        }
+        //先校验再解析，非法时不创建异常
+        return NumberScanner.isDouble(str) ? Double.valueOf(str) : defaultValue;
     }
 
     /**
@@ -597,11 +577,8 @@ public class Str {
         if(isBlank(str)){
             return defaultValue;
         }
-        try{
-            return Float.parseFloat(str);
-        }catch(NumberFormatException e){
-            return defaultValue;
-        }
+        //先校验再解析，非法时不创建异常
+        return NumberScanner.isDouble(str) ? Float.valueOf(str) : defaultValue;
     }
 
     /**
@@ -614,11 +591,12 @@ public class Str {
         if(isBlank(str)){
             return defaultValue;
         }
-        try{
-            return Short.parseShort(str);
-        }catch(NumberFormatException e){
+        //非法时不创建异常
+        long value = NumberScanner.parseInt(str, Short.MIN_VALUE, Short.MAX_VALUE);
+        if (value == NumberScanner.INVALID) {
             return defaultValue;
         }
+        return (short) value;
     }
 
     /**
@@ -631,11 +609,12 @@ public class Str {
         if(isBlank(str)){
             return defaultValue;
         }
-        try{
-            return Byte.parseByte(str);
-        }catch(NumberFormatException e){
+        //非法时不创建异常
+        long value = NumberScanner.parseInt(str, Byte.MIN_VALUE, Byte.MAX_VALUE);
+        if (value == NumberScanner.INVALID) {
             return defaultValue;
         }
+        return (byte) value;
     }
 
     /**
@@ -681,7 +660,7 @@ public class Str {
             return defaultValue;
         }
         try{
-            return LocalDate.parse(str, DateTimeFormatter.ofPattern(format));
+            return DateTimeParser.parseDate(str, format);
         }catch(DateTimeException e){
             return defaultValue;
         }
@@ -709,7 +688,7 @@ public class Str {
             return defaultValue;
         }
         try{
-            return LocalDateTime.parse(str, DateTimeFormatter.ofPattern(format));
+            return DateTimeParser.parseDateTime(str, format);
         }catch(DateTimeException e){
             return defaultValue;
         }
@@ -737,7 +716,7 @@ public class Str {
             return defaultValue;
         }
         try{
-            return LocalTime.parse(str, DateTimeFormatter.ofPattern(format));
+            return DateTimeParser.parseTime(str, format);
         }catch(DateTimeException e){
             return defaultValue;
         }
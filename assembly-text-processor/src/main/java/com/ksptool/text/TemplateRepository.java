@@ -0,0 +1,406 @@
+package com.ksptool.text;
+
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+
+/**
+ * 以目录为来源的模板仓库。
+ * <p>
+ * 目录（包括子目录）中的每个普通文件都是一个模板，模板名称为文件相对于目录的路径，
+ * 路径分隔符统一为 {@code /}，例如 {@code system/footer.txt}。
+ * 文件按UTF-8解码，编译结果常驻内存；模板之间可以通过 {@code #{>name}} 互相包含，
+ * 见 {@link PromptRegistry}。
+ * <p>
+ * {@link #refresh()} 按文件的修改时间与大小检测变化，只重新读取并编译发生变化的文件以及包含它们的模板。
+ * 修改时间的精度有限，在上一次扫描前后很短时间内修改过的文件即使修改时间与大小都没有变化，也会被重新读取并比较内容，
+ * 因此在同一个时间刻度内写入的同样大小的内容也能被检测到。
+ * 新的编译结果在全部完成后一次性替换旧的快照，{@link #get(String)} 只读取快照，不加锁，
+ * 因此刷新期间的获取与渲染不会被阻塞，也不会看到只更新了一半的模板集合。
+ * 调用 {@link #watch()} 后由后台线程通过 {@link WatchService} 监听目录变化并自动刷新。
+ *
+ * <h3>用法:</h3>
+ * <pre>{@code
+ * TemplateRepository repository = TemplateRepository.open(Path.of("prompts"));
+ * repository.watch();
+ *
+ * String result = repository.get("answer.txt").bind()
+ *     .setParameter("question", "...")
+ *     .execute();
+ * }</pre>
+ */
+public final class TemplateRepository implements AutoCloseable {
+
+
+    // 模板目录
+    private final Path directory;
+
+    // 模板的注册表，负责编译与包含关系
+    private final PromptRegistry registry = new PromptRegistry();
+
+    // 修改时间在上一次扫描之前这段时间以内的文件需要比较内容，覆盖常见文件系统的时间精度（毫秒）
+    private static final long RACY_MILLIS = 2000;
+
+    // 当前生效的快照，整体替换
+    private volatile Map<String, Entry> snapshot = Collections.emptyMap();
+
+    // 上一次成功扫描开始的时间（毫秒）
+    private long lastScan = Long.MIN_VALUE;
+
+    // 目录监听服务，未开始监听时为null
+    private WatchService watchService;
+
+    // 最近一次自动刷新失败的原因，成功刷新后清除
+    private volatile RuntimeException lastFailure;
+
+    private TemplateRepository(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * 打开模板目录并加载其中的全部模板
+     *
+     * @param directory 模板目录
+     * @return 模板仓库
+     * @throws UncheckedIOException  读取目录或文件失败
+     * @throws IllegalStateException 如果模板包含了不存在的模板或存在循环包含
+     */
+    public static TemplateRepository open(Path directory) {
+        if (directory == null) {
+            throw new IllegalArgumentException("模板目录不能为null");
+        }
+        if (!Files.isDirectory(directory)) {
+            throw new IllegalArgumentException("模板目录不存在: " + directory);
+        }
+        TemplateRepository repository = new TemplateRepository(directory);
+        repository.refresh();
+        return repository;
+    }
+
+    /**
+     * 获取模板的编译结果
+     *
+     * @param name 模板名称（相对于模板目录的路径）
+     * @return 编译后的模板
+     * @throws IllegalArgumentException 如果模板不存在
+     */
+    public CompiledPrompt get(String name) {
+        if (name == null) {
+            throw new IllegalArgumentException("模板名称不能为null");
+        }
+        Entry entry = snapshot.get(name);
+        if (entry == null) {
+            throw new IllegalArgumentException("未找到模板: " + name);
+        }
+        return entry.compiled;
+    }
+
+    /**
+     * 判断模板是否存在
+     *
+     * @param name 模板名称
+     * @return 如果模板存在则返回true
+     */
+    public boolean contains(String name) {
+        return snapshot.containsKey(name);
+    }
+
+    /**
+     * 获取全部模板名称
+     *
+     * @return 模板名称集合
+     */
+    public Set<String> getNames() {
+        return snapshot.keySet();
+    }
+
+    /**
+     * 重新扫描模板目录，只读取并编译修改时间或大小发生变化的文件
+     * <p>
+     * 变化的文件全部读取完成后才修改注册表；编译失败时注册表回滚到刷新之前的状态，旧的快照保持不变，
+     * 下次刷新会重新比较全部变化。
+     *
+     * @return 如果有模板被新增、修改或删除则返回true
+     * @throws UncheckedIOException  读取目录或文件失败
+     * @throws IllegalStateException 如果模板包含了不存在的模板或存在循环包含
+     */
+    public synchronized boolean refresh() {
+        Map<String, Entry> current = snapshot;
+        long scanStart = System.currentTimeMillis();
+        Map<String, FileState> files = scan();
+
+        List<String> removed = new ArrayList<>();
+        for (String name : current.keySet()) {
+            if (!files.containsKey(name)) {
+                removed.add(name);
+            }
+        }
+        Map<String, String> modified = new HashMap<>();
+        Map<String, Entry> unchanged = new HashMap<>();
+        for (Map.Entry<String, FileState> file : files.entrySet()) {
+            Entry previous = current.get(file.getKey());
+            FileState state = file.getValue();
+            if (previous != null && previous.state.equals(state) && !isRacy(state)) {
+                continue;
+            }
+            String template = read(state.path);
+            if (previous != null && previous.compiled.getTemplate().equals(template)) {
+                // 修改时间或大小变化而内容不变，或者内容需要比较的文件没有变化
+                unchanged.put(file.getKey(), new Entry(state, previous.compiled));
+                continue;
+            }
+            modified.put(file.getKey(), template);
+        }
+        if (removed.isEmpty() && modified.isEmpty()) {
+            lastScan = scanStart;
+            if (!unchanged.isEmpty()) {
+                Map<String, Entry> next = new HashMap<>(current);
+                next.putAll(unchanged);
+                snapshot = Collections.unmodifiableMap(next);
+            }
+            return false;
+        }
+
+        for (String name : removed) {
+            registry.remove(name);
+        }
+        for (Map.Entry<String, String> template : modified.entrySet()) {
+            registry.register(template.getKey(), template.getValue());
+        }
+        // 注册表只会重新编译变化的模板与包含它们的模板，其余模板直接取回已有的编译结果
+        Map<String, Entry> next = new HashMap<>();
+        try {
+            for (Map.Entry<String, FileState> file : files.entrySet()) {
+                next.put(file.getKey(), new Entry(file.getValue(), registry.get(file.getKey())));
+            }
+        } catch (RuntimeException e) {
+            rollback(current, removed, modified.keySet());
+            throw e;
+        }
+        lastScan = scanStart;
+        snapshot = Collections.unmodifiableMap(next);
+        return true;
+    }
+
+    /**
+     * 将删除与修改过的模板恢复为快照中的内容，快照中没有的模板从注册表中移除
+     */
+    private void rollback(Map<String, Entry> current, List<String> removed, Set<String> modified) {
+        List<String> names = new ArrayList<>(removed);
+        names.addAll(modified);
+        for (String name : names) {
+            Entry previous = current.get(name);
+            if (previous != null) {
+                registry.register(name, previous.compiled.getTemplate());
+            } else {
+                registry.remove(name);
+            }
+        }
+    }
+
+    /**
+     * 判断文件的修改时间是否离上一次扫描太近，之后在同一个时间刻度内的修改可能不会改变修改时间
+     */
+    private boolean isRacy(FileState state) {
+        return lastScan == Long.MIN_VALUE || state.lastModified >= lastScan - RACY_MILLIS;
+    }
+
+    /**
+     * 启动后台线程监听模板目录，目录中的文件变化时自动刷新
+     * <p>
+     * 后台线程是守护线程，调用 {@link #close()} 停止监听。自动刷新失败时旧的快照保持不变，
+     * 失败原因可以通过 {@link #getLastFailure()} 获取，下次检测到变化时会再次尝试。
+     *
+     * @return 当前TemplateRepository实例，支持链式调用
+     * @throws UncheckedIOException 创建监听服务失败
+     */
+    public synchronized TemplateRepository watch() {
+        if (watchService != null) {
+            return this;
+        }
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            registerDirectories(watchService);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        WatchService service = watchService;
+        Thread thread = new Thread(() -> watchLoop(service), "template-repository-watcher");
+        thread.setDaemon(true);
+        thread.start();
+        return this;
+    }
+
+    /**
+     * 获取最近一次自动刷新失败的原因
+     *
+     * @return 失败原因，最近一次自动刷新成功时返回null
+     */
+    public RuntimeException getLastFailure() {
+        return lastFailure;
+    }
+
+    /**
+     * 停止监听模板目录，已加载的模板仍然可用
+     */
+    @Override
+    public synchronized void close() {
+        if (watchService == null) {
+            return;
+        }
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            watchService = null;
+        }
+    }
+
+    private void watchLoop(WatchService service) {
+        try {
+            while (true) {
+                WatchKey key = service.take();
+                key.pollEvents();
+                key.reset();
+
+                // 合并短时间内的多个事件，只刷新一次
+                WatchKey more;
+                while ((more = service.poll()) != null) {
+                    more.pollEvents();
+                    more.reset();
+                }
+                try {
+                    synchronized (this) {
+                        registerDirectories(service);
+                    }
+                    refresh();
+                    lastFailure = null;
+                } catch (IOException e) {
+                    lastFailure = new UncheckedIOException(e);
+                } catch (RuntimeException e) {
+                    lastFailure = e;
+                }
+            }
+        } catch (ClosedWatchServiceException e) {
+            // 仓库已关闭
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 注册目录及其全部子目录，新增的子目录在下次变化时注册；重复注册同一目录没有副作用
+     */
+    private void registerDirectories(WatchService service) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) paths.filter(Files::isDirectory)::iterator) {
+                path.register(service, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+            }
+        }
+    }
+
+    /**
+     * 扫描目录中的全部普通文件
+     */
+    private Map<String, FileState> scan() {
+        Map<String, FileState> files = new HashMap<>();
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                if (!attributes.isRegularFile()) {
+                    continue;
+                }
+                String name = directory.relativize(path).toString().replace(path.getFileSystem().getSeparator(), "/");
+                files.put(name, new FileState(path, attributes.lastModifiedTime().toMillis(), attributes.size()));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return files;
+    }
+
+    /**
+     * 读取文件并按UTF-8解码，非法的UTF-8字节会导致读取失败
+     * <p>
+     * 不使用内存映射：映射的缓冲区在被回收前不会解除映射，Windows上会一直锁住文件，
+     * 编辑器无法保存模板，监听与自动刷新也就失去了意义。模板文件通常很小，直接读取的开销可以忽略。
+     */
+    private static String read(Path path) {
+        try {
+            return Files.readString(path, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException("读取模板文件失败: " + path, e);
+        }
+    }
+
+    /**
+     * 文件的修改时间与大小，任一变化即视为文件已修改
+     */
+    private static final class FileState {
+
+        private final Path path;
+
+        private final long lastModified;
+
+        private final long size;
+
+        private FileState(Path path, long lastModified, long size) {
+            this.path = path;
+            this.lastModified = lastModified;
+            this.size = size;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof FileState)) {
+                return false;
+            }
+            FileState other = (FileState) o;
+            return lastModified == other.lastModified && size == other.size && path.equals(other.path);
+        }
+
+        @Override
+        public int hashCode() {
+            return path.hashCode() * 31 + Long.hashCode(lastModified);
+        }
+    }
+
+    /**
+     * 快照中的一个模板
+     */
+    private static final class Entry {
+
+        private final FileState state;
+
+        private final CompiledPrompt compiled;
+
+        private Entry(FileState state, CompiledPrompt compiled) {
+            this.state = state;
+            this.compiled = compiled;
+        }
+    }
+
+}
@@ -0,0 +1,130 @@
+package com.ksptool.text;
+
+
+import java.nio.ByteBuffer;
+
+/**
+ * UTF-8编码工具，直接将字符写入字节目标，不经过中间的byte[]。
+ * <p>
+ * 编码结果与 {@code String.getBytes(StandardCharsets.UTF_8)} 一致，不成对的代理字符编码为 {@code '?'}。
+ */
+final class Utf8 {
+
+
+    private Utf8() {
+        throw new UnsupportedOperationException("工具类不允许实例化");
+    }
+
+    /**
+     * 计算字符序列编码为UTF-8后的字节数，不进行编码
+     *
+     * @param cs 字符序列
+     * @return 编码后的字节数
+     */
+    static int encodedLength(CharSequence cs) {
+        int length = cs.length();
+        int bytes = length;
+        for (int i = 0; i < length; i++) {
+            char c = cs.charAt(i);
+            if (c < 0x80) {
+                continue;
+            }
+            if (c < 0x800) {
+                bytes += 1;
+                continue;
+            }
+            if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(cs.charAt(i + 1))) {
+                // 代理对两个字符共4个字节
+                bytes += 2;
+                i++;
+                continue;
+            }
+            if (!Character.isSurrogate(c)) {
+                bytes += 2;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * 将字符序列编码为UTF-8写入ByteBuffer
+     *
+     * @param cs  字符序列
+     * @param dst 目标缓冲区
+     * @throws java.nio.BufferOverflowException 如果缓冲区剩余空间不足
+     */
+    static void encode(CharSequence cs, ByteBuffer dst) {
+        int length = cs.length();
+        for (int i = 0; i < length; i++) {
+            char c = cs.charAt(i);
+            if (c < 0x80) {
+                dst.put((byte) c);
+                continue;
+            }
+            if (c < 0x800) {
+                dst.put((byte) (0xC0 | (c >> 6)));
+                dst.put((byte) (0x80 | (c & 0x3F)));
+                continue;
+            }
+            if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(cs.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, cs.charAt(++i));
+                dst.put((byte) (0xF0 | (cp >> 18)));
+                dst.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                dst.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                dst.put((byte) (0x80 | (cp & 0x3F)));
+                continue;
+            }
+            if (Character.isSurrogate(c)) {
+                dst.put((byte) '?');
+                continue;
+            }
+            dst.put((byte) (0xE0 | (c >> 12)));
+            dst.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+            dst.put((byte) (0x80 | (c & 0x3F)));
+        }
+    }
+
+    /**
+     * 将字符序列中从from开始的字符编码为UTF-8写入字节数组，直到数组剩余空间不足以容纳下一个字符
+     *
+     * @param cs   字符序列
+     * @param from 开始编码的字符位置
+     * @param dst  目标数组
+     * @param pos  目标数组的写入位置，写入结束后的位置通过返回值的低32位给出
+     * @return 高32位为下一个待编码的字符位置，低32位为目标数组新的写入位置
+     */
+    static long encode(CharSequence cs, int from, byte[] dst, int pos) {
+        int length = cs.length();
+        int limit = dst.length;
+        int i = from;
+        while (i < length && pos + 4 <= limit) {
+            char c = cs.charAt(i++);
+            if (c < 0x80) {
+                dst[pos++] = (byte) c;
+                continue;
+            }
+            if (c < 0x800) {
+                dst[pos++] = (byte) (0xC0 | (c >> 6));
+                dst[pos++] = (byte) (0x80 | (c & 0x3F));
+                continue;
+            }
+            if (Character.isHighSurrogate(c) && i < length && Character.isLowSurrogate(cs.charAt(i))) {
+                int cp = Character.toCodePoint(c, cs.charAt(i++));
+                dst[pos++] = (byte) (0xF0 | (cp >> 18));
+                dst[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                dst[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                dst[pos++] = (byte) (0x80 | (cp & 0x3F));
+                continue;
+            }
+            if (Character.isSurrogate(c)) {
+                dst[pos++] = (byte) '?';
+                continue;
+            }
+            dst[pos++] = (byte) (0xE0 | (c >> 12));
+            dst[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            dst[pos++] = (byte) (0x80 | (c & 0x3F));
+        }
+        return ((long) i << 32) | pos;
+    }
+
+}
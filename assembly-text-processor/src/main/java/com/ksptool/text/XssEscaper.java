@@ -0,0 +1,238 @@
+package com.ksptool.text;
+
+
+/**
+ * 单次扫描、查表实现的XSS过滤器。
+ * <p>
+ * 转义的字符与过滤的攻击向量与原先逐个调用 {@code String.replace}/{@code replaceAll} 的实现完全一致：
+ * <ul>
+ *   <li>转义 {@code & < > " ' / \ ( )} 为对应的HTML实体；</li>
+ *   <li>移除（不区分大小写的）{@code javascript:}、{@code data:}、{@code vbscript:} 以及 {@code on\w+\s*=}。</li>
+ * </ul>
+ * 攻击向量只由字母、数字、下划线、空白、冒号与等号组成，既不会包含也不会跨越转义后的实体，
+ * 因此可以先在原始输入上移除攻击向量再逐字符转义，结果与先转义再移除相同。
+ * 原实现中的 {@code expression\s*\(} 与 {@code eval\s*\(} 作用于转义之后的文本，此时左括号已被转义，
+ * 永远不会匹配，这里不再处理。
+ * <p>
+ * 输入中不含任何需要转义的字符、也不含冒号和等号时直接返回原字符串，不产生任何复制。
+ */
+final class XssEscaper {
+
+
+    // 需要转义的字符对应的实体，下标为字符值
+    private static final String[] ESCAPES = new String[128];
+
+    // 字符分类：需要转义
+    private static final byte ESCAPE = 1;
+
+    // 字符分类：可能构成攻击向量（冒号与等号）
+    private static final byte KEYWORD = 2;
+
+    // 按字符值查表的字符分类
+    private static final byte[] CHAR_TYPES = new byte[128];
+
+    // 需要移除的协议前缀（小写），按原实现的顺序依次处理
+    private static final String[] PROTOCOLS = {"javascript:", "data:", "vbscript:"};
+
+    static {
+        ESCAPES['&'] = "&amp;";
+        ESCAPES['<'] = "&lt;";
+        ESCAPES['>'] = "&gt;";
+        ESCAPES['"'] = "&quot;";
+        ESCAPES['\''] = "&#x27;";
+        ESCAPES['/'] = "&#x2F;";
+        ESCAPES['\\'] = "&#x5C;";
+        ESCAPES['('] = "&#40;";
+        ESCAPES[')'] = "&#41;";
+        for (int c = 0; c < ESCAPES.length; c++) {
+            if (ESCAPES[c] != null) {
+                CHAR_TYPES[c] = ESCAPE;
+            }
+        }
+        CHAR_TYPES[':'] = KEYWORD;
+        CHAR_TYPES['='] = KEYWORD;
+    }
+
+    private XssEscaper() {
+        throw new UnsupportedOperationException("工具类不允许实例化");
+    }
+
+    /**
+     * 对字符串进行XSS过滤
+     *
+     * @param input 输入字符串
+     * @return 过滤后的字符串，无需过滤时返回输入本身
+     */
+    static String escape(String input) {
+        if (input == null) {
+            return "null";
+        }
+
+        // 先扫描一遍确定是否需要处理，绝大多数参数值在这里直接返回
+        int types = typesOf(input);
+        if (types == 0) {
+            return input;
+        }
+
+        String result = input;
+        if ((types & KEYWORD) != 0) {
+            result = removeAttackVectors(result);
+        }
+        if ((types & ESCAPE) != 0) {
+            result = escapeChars(result);
+        }
+        return result;
+    }
+
+    /**
+     * 判断过滤器是否会原样返回输入，判断只需一次扫描，不产生任何分配
+     *
+     * @param input 输入字符串，不为null
+     * @return 输入中不含需要转义的字符、也不含冒号和等号时返回true
+     */
+    static boolean isUnchanged(String input) {
+        return typesOf(input) == 0;
+    }
+
+    /**
+     * 输入中出现的全部字符分类
+     */
+    private static int typesOf(String input) {
+        int length = input.length();
+        int types = 0;
+        for (int i = 0; i < length; i++) {
+            char c = input.charAt(i);
+            if (c < 128) {
+                types |= CHAR_TYPES[c];
+            }
+        }
+        return types;
+    }
+
+    /**
+     * 逐字符转义，只在遇到需要转义的字符时才追加前面未转义的片段
+     */
+    private static String escapeChars(String input) {
+        int length = input.length();
+        StringBuilder result = null;
+        int last = 0;
+        for (int i = 0; i < length; i++) {
+            char c = input.charAt(i);
+            if (c >= 128 || ESCAPES[c] == null) {
+                continue;
+            }
+            if (result == null) {
+                result = new StringBuilder(length + 16);
+            }
+            result.append(input, last, i).append(ESCAPES[c]);
+            last = i + 1;
+        }
+        if (result == null) {
+            return input;
+        }
+        return result.append(input, last, length).toString();
+    }
+
+    /**
+     * 依次移除协议前缀与事件处理器，每一步都只扫描一遍且不重新扫描移除后拼接出的文本
+     */
+    private static String removeAttackVectors(String input) {
+        String result = input;
+        for (String protocol : PROTOCOLS) {
+            result = removeIgnoreCase(result, protocol);
+        }
+        return removeEventHandlers(result);
+    }
+
+    /**
+     * 移除所有不区分大小写（仅ASCII）匹配的关键字
+     */
+    private static String removeIgnoreCase(String input, String keyword) {
+        int length = input.length();
+        int keywordLength = keyword.length();
+        StringBuilder result = null;
+        int last = 0;
+        int i = 0;
+        while (i <= length - keywordLength) {
+            if (!regionMatchesIgnoreCase(input, i, keyword)) {
+                i++;
+                continue;
+            }
+            if (result == null) {
+                result = new StringBuilder(length);
+            }
+            result.append(input, last, i);
+            i += keywordLength;
+            last = i;
+        }
+        if (result == null) {
+            return input;
+        }
+        return result.append(input, last, length).toString();
+    }
+
+    /**
+     * 移除形如 {@code on\w+\s*=} 的事件处理器（不区分大小写）
+     */
+    private static String removeEventHandlers(String input) {
+        int length = input.length();
+        StringBuilder result = null;
+        int last = 0;
+        int i = 0;
+        while (i < length - 1) {
+            if (toLowerAscii(input.charAt(i)) != 'o' || toLowerAscii(input.charAt(i + 1)) != 'n') {
+                i++;
+                continue;
+            }
+            int end = i + 2;
+            while (end < length && isWordChar(input.charAt(end))) {
+                end++;
+            }
+            if (end == i + 2) {
+                i++;
+                continue;
+            }
+            while (end < length && isSpaceChar(input.charAt(end))) {
+                end++;
+            }
+            if (end == length || input.charAt(end) != '=') {
+                i++;
+                continue;
+            }
+            if (result == null) {
+                result = new StringBuilder(length);
+            }
+            result.append(input, last, i);
+            i = end + 1;
+            last = i;
+        }
+        if (result == null) {
+            return input;
+        }
+        return result.append(input, last, length).toString();
+    }
+
+    private static boolean regionMatchesIgnoreCase(String input, int offset, String lowerKeyword) {
+        for (int k = 0; k < lowerKeyword.length(); k++) {
+            if (toLowerAscii(input.charAt(offset + k)) != lowerKeyword.charAt(k)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static char toLowerAscii(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    // 与正则中的\w一致
+    private static boolean isWordChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+    }
+
+    // 与正则中的\s一致
+    private static boolean isSpaceChar(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r';
+    }
+
+}
@@ -0,0 +1,839 @@
+package com.ksptool.text;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PreparedPromptTest {
+
+
+    @Test
+    public void testExecute() {
+        String result = PreparedPrompt.prepare("你好, #{name}! 欢迎来到 #{location}。")
+                .setParameter("name", "张三")
+                .setParameter("location", "这里")
+                .execute();
+        assertEquals("你好, 张三! 欢迎来到 这里。", result);
+    }
+
+    @Test
+    public void testConditionalBlocks() {
+        PreparedPrompt prompt = PreparedPrompt.prepare("你好, #{name}。#{?showDetails}你的ID是#{userId}。#{?showDetails}")
+                .setParameter("name", "李四");
+        assertEquals("你好, 李四。", prompt.execute());
+
+        prompt.setParameter("showDetails", "true").setParameter("userId", "123");
+        assertEquals("你好, 李四。你的ID是123。", prompt.execute());
+
+        //嵌套条件块
+        PreparedPrompt nested = PreparedPrompt.prepare("#{?a}A#{?b}B#{?b}#{?a}")
+                .setParameter("a", "1");
+        assertEquals("A", nested.execute());
+        assertEquals("AB", nested.setParameter("b", "1").execute());
+
+        //找不到结束标记时按普通文本处理
+        assertEquals("x#{?a}y", PreparedPrompt.prepare("x#{?a}y").execute(false));
+
+        //深层嵌套的条件块
+        int depth = 2000;
+        StringBuilder deep = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            deep.append("#{?c").append(i).append("}").append(i % 10);
+        }
+        for (int i = depth - 1; i >= 0; i--) {
+            deep.append("#{?c").append(i).append("}");
+        }
+        PreparedPrompt deepPrompt = PreparedPrompt.prepare(deep.toString());
+        for (int i = 0; i < depth; i++) {
+            deepPrompt.setParameter("c" + i, i < 15 ? "1" : "");
+        }
+        assertEquals("012345678901234", deepPrompt.execute());
+    }
+
+    @Test
+    public void testStrictMode() {
+        PreparedPrompt prompt = PreparedPrompt.prepare("#{a}#{?flag}#{b}#{?flag}");
+        assertThrows(IllegalStateException.class, prompt::execute);
+        assertArrayEquals(new String[]{"a"}, prompt.getUnsetParameters());
+        assertEquals("#{a}", prompt.execute(false));
+        assertEquals("null", prompt.setParameter("a", null).execute());
+
+        //错误信息按出现顺序列出所有到达的未设置参数
+        PreparedPrompt nested = PreparedPrompt.prepare("#{x}#{?flag}#{y}#{?inner}#{z}#{?inner}#{?flag}#{w}")
+                .setParameter("flag", "1")
+                .setParameter("inner", "1");
+        IllegalStateException e = assertThrows(IllegalStateException.class, nested::execute);
+        assertEquals("存在未设置的参数: x, y, z, w", e.getMessage());
+        nested.setParameter("x", "1").setParameter("y", "2").setParameter("w", "4").setParameter("inner", "");
+        assertEquals("124", nested.execute());
+    }
+
+    @Test
+    public void testXssFilter() {
+        PreparedPrompt prompt = PreparedPrompt.prepare("#{v}")
+                .setParameter("v", "<a href=\"javascript:x\" onclick = y>$1\\</a>");
+        assertEquals("&lt;a href=&quot;x&quot;  y&gt;$1&#x5C;&lt;&#x2F;a&gt;", prompt.execute());
+        assertEquals("<a href=\"javascript:x\" onclick = y>$1\\</a>", prompt.enableXssFilter(false).execute());
+    }
+
+    @Test
+    public void testXssEscaper() {
+        String safe = "普通的参数值 123";
+        assertSame(safe, XssEscaper.escape(safe));
+        assertEquals("null", XssEscaper.escape(null));
+        //移除后拼接出的关键字不会被再次移除，但会被后续规则处理
+        assertEquals("javascript:", XssEscaper.escape("javajavascript:script:"));
+        assertEquals("", XssEscaper.escape("ONdata:X ="));
+        assertEquals("eval &#40;1&#41;", XssEscaper.escape("eval (1)"));
+    }
+
+    @Test
+    public void testEscapeModifiers() {
+        PreparedPrompt prompt = PreparedPrompt.prepare("#{v}|#{v|html}|#{v|json}|#{v|raw}|#{a|b}")
+                .setParameter("v", "<\"x\">\n")
+                .setParameter("a|b", "1");
+        assertEquals("&lt;&quot;x&quot;&gt;\n|&lt;&quot;x&quot;&gt;\n|\\u003c\\\"x\\\"\\u003e\\n|<\"x\">\n|1", prompt.execute());
+        assertEquals("<\"x\">\n|&lt;&quot;x&quot;&gt;\n|\\u003c\\\"x\\\"\\u003e\\n|<\"x\">\n|1", prompt.enableXssFilter(false).execute());
+        assertArrayEquals(new String[]{"v", "a|b"}, PreparedPrompt.compile("#{v|json}#{v}#{a|b}").getParameterNames());
+
+        //json转义后的值不能提前结束脚本块
+        String script = PreparedPrompt.prepare("<script>var data = \"#{payload|json}\";</script>")
+                .setParameter("payload", "</script><script>alert(1)</script><!--&\u2028")
+                .execute();
+        assertEquals("<script>var data = \"\\u003c\\u002fscript\\u003e\\u003cscript\\u003ealert(1)"
+                + "\\u003c\\u002fscript\\u003e\\u003c!--\\u0026\\u2028\";</script>", script);
+        assertEquals(1, script.split("</script>", -1).length - 1);
+    }
+
+    @Test
+    public void testCompiledPrompt() {
+        CompiledPrompt compiled = PreparedPrompt.compile("#{greeting}, #{name}!#{?vip} VIP#{?vip}");
+        Map<String, String> params = new HashMap<>();
+        params.put("greeting", "Hi");
+        params.put("name", "Tom");
+        assertEquals("Hi, Tom!", compiled.execute(params));
+        params.put("vip", "yes");
+        assertEquals("Hi, Tom! VIP", compiled.execute(params));
+    }
+
+    @Test
+    public void testUnion() {
+        PreparedPrompt prompt = PreparedPrompt.prepare("#{a}#{?flag}[#{b}]#{?flag}")
+                .setParameter("a", "1")
+                .enableXssFilter(false);
+        PreparedPrompt union = prompt.union("\n", "#{b}#{?flag}<#{c}>#{?flag}#{a}");
+        assertEquals("#{a}#{?flag}[#{b}]#{?flag}\n#{b}#{?flag}<#{c}>#{?flag}#{a}", union.getTemplate());
+        union.setParameter("b", "2").setParameter("c", "3");
+        assertEquals("1\n21", union.execute());
+        assertEquals("1[2]\n2<3>1", union.setParameter("flag", "y").execute());
+
+        CompiledPrompt first = PreparedPrompt.compile("#{x}-#{y}");
+        CompiledPrompt second = PreparedPrompt.compile("#{y|json}#{?x}+#{?x}");
+        CompiledPrompt joined = CompiledPrompt.concat(", ", first, second, first);
+        assertArrayEquals(new String[]{"x", "y"}, joined.getParameterNames());
+        Map<String, String> params = new HashMap<>();
+        params.put("x", "1");
+        params.put("y", "\"");
+        assertEquals("1-&quot;, \\\"+, 1-&quot;", joined.execute(params));
+    }
+
+    @Test
+    public void testPromptRegistry() {
+        PromptRegistry registry = new PromptRegistry()
+                .register("footer", "请遵守#{policy}。")
+                .register("safety", "#{?strict}严格模式#{?strict}#{>footer}")
+                .register("answer", "问题: #{question}|#{>safety}")
+                .register("other", "#{question}");
+
+        CompiledPrompt answer = registry.get("answer");
+        assertSame(answer, registry.get("answer"));
+        assertArrayEquals(new String[]{"question", "strict", "policy"}, answer.getParameterNames());
+        assertEquals("问题: 1|严格模式请遵守规范。", answer.bind()
+                .setParameter("question", "1")
+                .setParameter("strict", "y")
+                .setParameter("policy", "规范")
+                .execute());
+        assertArrayEquals(new String[]{">footer"}, PreparedPrompt.compile("#{>footer}").getParameterNames());
+
+        //更新片段只使依赖它的模板失效
+        CompiledPrompt other = registry.get("other");
+        assertEquals(Set.of("safety", "answer"), registry.getDependents("footer"));
+        registry.register("footer", "END");
+        assertSame(other, registry.get("other"));
+        assertNotSame(answer, registry.get("answer"));
+        assertEquals("问题: 1|END", registry.get("answer").bind().setParameter("question", "1").execute(false));
+        assertEquals("x END", registry.compile("x #{>footer}").execute(new HashMap<>()));
+
+        registry.register("a", "#{>b}").register("b", "#{>a}");
+        IllegalStateException e = assertThrows(IllegalStateException.class, () -> registry.get("a"));
+        assertEquals("模板存在循环包含: a -> b -> a", e.getMessage());
+        assertThrows(IllegalStateException.class, () -> registry.compile("#{>missing}"));
+        assertThrows(IllegalArgumentException.class, () -> registry.get("missing"));
+    }
+
+    @Test
+    public void testTemplateRepository(@TempDir Path directory) throws IOException {
+        Files.createDirectories(directory.resolve("common"));
+        Files.writeString(directory.resolve("common/footer.txt"), "——#{policy}");
+        Files.writeString(directory.resolve("answer.txt"), "问题: #{question}#{>common/footer.txt}");
+        Files.writeString(directory.resolve("other.txt"), "#{x}");
+
+        try (TemplateRepository repository = TemplateRepository.open(directory)) {
+            assertEquals(Set.of("common/footer.txt", "answer.txt", "other.txt"), repository.getNames());
+            CompiledPrompt answer = repository.get("answer.txt");
+            CompiledPrompt other = repository.get("other.txt");
+            assertEquals("问题: 1——规范", answer.bind().setParameter("question", "1").setParameter("policy", "规范").execute());
+            assertEquals(false, repository.refresh());
+
+            //只重新编译变化的文件与包含它的模板
+            Files.writeString(directory.resolve("common/footer.txt"), "（完）");
+            Files.writeString(directory.resolve("new.txt"), "新");
+            assertTrue(repository.refresh());
+            assertEquals("问题: 1（完）", repository.get("answer.txt").bind().setParameter("question", "1").execute());
+            assertSame(other, repository.get("other.txt"));
+            assertEquals("新", repository.get("new.txt").execute(new HashMap<>()));
+
+            //刷新失败时保留旧的快照
+            Files.delete(directory.resolve("common/footer.txt"));
+            assertThrows(IllegalStateException.class, repository::refresh);
+            assertTrue(repository.contains("common/footer.txt"));
+            Files.writeString(directory.resolve("answer.txt"), "#{question}");
+            assertTrue(repository.refresh());
+            assertEquals(Set.of("answer.txt", "other.txt", "new.txt"), repository.getNames());
+
+            //刷新失败时注册表回滚，失败的刷新中新增的模板在删除后不能再被包含
+            Files.writeString(directory.resolve("added.txt"), "A");
+            Files.writeString(directory.resolve("broken.txt"), "#{>missing.txt}");
+            assertThrows(IllegalStateException.class, repository::refresh);
+            Files.delete(directory.resolve("added.txt"));
+            Files.delete(directory.resolve("broken.txt"));
+            Files.writeString(directory.resolve("other.txt"), "#{>added.txt}");
+            assertThrows(IllegalStateException.class, repository::refresh);
+            //内容恢复为快照中的内容，没有变化
+            Files.writeString(directory.resolve("other.txt"), "#{x}");
+            assertEquals(false, repository.refresh());
+            assertEquals(Set.of("answer.txt", "other.txt", "new.txt"), repository.getNames());
+
+            //修改时间与大小都不变的修改也能被检测到
+            Path newFile = directory.resolve("new.txt");
+            FileTime modified = Files.getLastModifiedTime(newFile);
+            Files.writeString(newFile, "旧");
+            Files.setLastModifiedTime(newFile, modified);
+            assertTrue(repository.refresh());
+            assertEquals("旧", repository.get("new.txt").execute(new HashMap<>()));
+            assertEquals(false, repository.refresh());
+        }
+    }
+
+    @Test
+    public void testRenderSession() {
+        CompiledPrompt compiled = PreparedPrompt.compile(
+                "系统: #{system}\n#{?history}历史: #{history}\n#{?history}用户: #{message}\n#{system|json}");
+        RenderSession session = compiled.session()
+                .setParameter("system", "<s>")
+                .setParameter("history", "");
+        assertThrows(IllegalStateException.class, session::render);
+        session.setParameter("message", "hi");
+        assertEquals(compiled.bind().setParameters(Map.of("system", "<s>", "message", "hi", "history", "")).execute(),
+                session.render());
+
+        //只有依赖被修改参数的段需要重新渲染，条件不成立的块内的段尚未渲染
+        session.setParameter("message", "again");
+        assertEquals(2, session.getDirtyCount());
+        assertEquals("系统: &lt;s&gt;\n用户: again\n\\u003cs\\u003e", session.render());
+        assertEquals(1, session.setParameter("message", "again").getDirtyCount());
+
+        session.setParameter("history", "h1");
+        assertEquals(1, session.getDirtyCount());
+        assertEquals("系统: &lt;s&gt;\n历史: h1\n用户: again\n\\u003cs\\u003e", session.render());
+        assertEquals("系统: <s>\n历史: h1\n用户: again\n\\u003cs\\u003e", session.enableXssFilter(false).render());
+    }
+
+    @Test
+    public void testRenderSessionNestedBlocks() {
+        //整个模板位于一个条件块中时，块内的段同样单独缓存
+        CompiledPrompt compiled = PreparedPrompt.compile(
+                "#{?on}系统: #{system}\n#{?history}历史: #{history}\n#{?history}用户: #{message}#{?on}");
+        RenderSession session = compiled.session()
+                .setParameter("on", "1")
+                .setParameter("system", "<s>")
+                .setParameter("history", "h")
+                .setParameter("message", "hi");
+        assertEquals(3, session.getDirtyCount());
+        assertEquals("系统: &lt;s&gt;\n历史: h\n用户: hi", session.render());
+        assertEquals(0, session.getDirtyCount());
+        assertEquals(1, session.setParameter("message", "again").getDirtyCount());
+        assertEquals("系统: &lt;s&gt;\n历史: h\n用户: again", session.render());
+
+        //条件块的开关不使块内的段失效
+        assertEquals(0, session.setParameter("on", "").getDirtyCount());
+        assertEquals("", session.render());
+        session.setParameter("message", "m");
+        assertEquals("", session.render());
+        assertEquals(1, session.getDirtyCount());
+        assertEquals("系统: &lt;s&gt;\n历史: h\n用户: m", session.setParameter("on", "1").render());
+        assertEquals(compiled.bind().setParameters(Map.of("on", "1", "system", "<s>", "history", "", "message", "m"))
+                .execute(), session.setParameter("history", "").render());
+
+        //延迟参数只在到达时求值一次，转义结果缓存与绑定的行为一致
+        AtomicInteger calls = new AtomicInteger();
+        session.setLazyParameter("history", () -> "h" + calls.incrementAndGet());
+        assertEquals(0, calls.get());
+        assertEquals("系统: &lt;s&gt;\n历史: h1\n用户: m", session.render());
+        assertEquals("系统: &lt;s&gt;\n历史: h1\n用户: m", session.render());
+        assertEquals(1, calls.get());
+        session.setLazyParameter("system", () -> {
+            throw new IllegalStateException("不应求值");
+        }).setParameter("on", "");
+        assertEquals("", session.render());
+
+        EscapeCache cache = new EscapeCache(PromptEscaper.HTML, 16, 1024);
+        RenderSession cached = compiled.session().setEscapeCache(cache)
+                .setParameters(Map.of("on", "1", "system", "<s>", "history", "", "message", "<m>"));
+        assertEquals("系统: &lt;s&gt;\n用户: &lt;m&gt;", cached.render());
+        assertEquals(2, cache.getMissCount());
+        assertThrows(IllegalArgumentException.class,
+                () -> compiled.session().setEscapeCache(new EscapeCache(PromptEscaper.JSON, 16, 1024)));
+    }
+
+    @Test
+    public void testLoopBlocks() throws IOException {
+        CompiledPrompt compiled = PreparedPrompt.compile(
+                "#{title}:\n#{*items}- #{name}#{?note} (#{note})#{?note} #{unit}\n#{*items}结束");
+        assertArrayEquals(new String[]{"title", "items", "name", "note", "unit"}, compiled.getParameterNames());
+
+        Map<String, String> first = new HashMap<>();
+        first.put("name", "<a>");
+        first.put("note", "n");
+        Map<String, String> second = new HashMap<>();
+        second.put("name", "b");
+        second.put("unit", "kg");
+        List<Map<String, String>> items = List.of(first, second);
+
+        //元素中没有的参数取绑定中的值
+        PromptBinding binding = compiled.bind()
+                .setParameter("title", "清单")
+                .setParameter("unit", "个")
+                .setItems("items", items);
+        assertEquals("清单:\n- &lt;a&gt; (n) 个\n- b kg\n结束", binding.execute());
+        StringBuilder out = new StringBuilder();
+        binding.render(out, true);
+        assertEquals(binding.execute(), out.toString());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        binding.renderUtf8(bytes);
+        assertEquals(binding.execute(), bytes.toString(StandardCharsets.UTF_8));
+        assertEquals("清单:\n结束", compiled.bind().setParameter("title", "清单").setItems("items", List.of()).execute());
+
+        //未设置循环块时严格模式报告循环块名称，元素缺少参数时在渲染到该元素时失败
+        IllegalStateException unsetItems = assertThrows(IllegalStateException.class,
+                () -> compiled.bind().setParameter("title", "t").execute());
+        assertEquals("存在未设置的参数: items", unsetItems.getMessage());
+        IllegalStateException unsetUnit = assertThrows(IllegalStateException.class,
+                () -> compiled.bind().setParameter("title", "t").setItems("items", List.of(first)).execute());
+        assertEquals("存在未设置的参数: unit", unsetUnit.getMessage());
+        assertEquals("t:\n- &lt;a&gt; (n) #{unit}\n结束",
+                compiled.bind().setParameter("title", "t").setItems("items", List.of(first)).execute(false));
+
+        //行与会话同样支持循环块，未闭合的循环标记按普通占位符处理
+        assertEquals(List.of("x:\n- &lt;a&gt; (n) 个\n- b kg\n结束"),
+                binding.renderAll(List.of(Map.of("title", "x"))));
+        assertEquals("清单:\n- b kg\n结束", compiled.session().setParameter("title", "清单").setParameter("unit", "个")
+                .setItems("items", List.of(second)).render());
+        //会话在严格模式下同样检查循环块元素，非严格模式渲染的结果在严格模式下重新检查
+        RenderSession session = compiled.session().setParameter("title", "t").setItems("items", List.of(first));
+        IllegalStateException sessionUnit = assertThrows(IllegalStateException.class, session::render);
+        assertEquals(unsetUnit.getMessage(), sessionUnit.getMessage());
+        assertEquals("t:\n- &lt;a&gt; (n) #{unit}\n结束", session.render(false));
+        assertThrows(IllegalStateException.class, session::render);
+        assertEquals("t:\n- &lt;a&gt; (n) 个\n结束", session.setParameter("unit", "个").render());
+        assertEquals("a-1", PreparedPrompt.prepare("a-#{*n}").setParameter("*n", "1").execute());
+        assertEquals("[x]", PreparedPrompt.prepare("[#{*r}#{v}#{*r}]")
+                .setItems("r", List.of(Map.of("v", "x"))).execute());
+
+        //块内没有到达的延迟参数不求值，到达时只求值一次
+        AtomicInteger calls = new AtomicInteger();
+        PreparedPrompt lazy = PreparedPrompt.prepare("#{*items}#{?show}#{ctx}#{?show}.#{*items}")
+                .setItems("items", List.of(Map.of(), Map.of()))
+                .setLazyParameter("ctx", () -> "c" + calls.incrementAndGet());
+        assertEquals("..", lazy.execute(false));
+        assertEquals(0, calls.get());
+        assertEquals("c1.c1.", lazy.setItems("items", List.of(Map.of("show", "y"), Map.of("show", "y"))).execute());
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void testSpecializedRenderer() throws IOException {
+        String template = "#{a}|#{a|json}|#{?flag}<#{b}>#{?inner}#{b|raw}#{?inner}#{?flag}|#{missing}".repeat(50);
+        CompiledPrompt interpreted = CompiledPrompt.compile(template);
+        CompiledPrompt specialized = CompiledPrompt.compile(template).specializeAfter(2);
+        Map<String, String> params = new HashMap<>();
+        params.put("a", "\"<x>\"");
+        params.put("flag", "on");
+        params.put("b", null);
+        params.put("inner", " ");
+
+        //达到解释执行次数之前不生成
+        for (int i = 0; i < 2; i++) {
+            assertEquals(interpreted.execute(params, false), specialized.execute(params, false));
+            assertFalse(specialized.isSpecialized());
+        }
+        assertEquals(interpreted.execute(params, false), specialized.execute(params, false));
+        assertTrue(specialized.isSpecialized());
+
+        params.put("inner", "yes");
+        params.put("flag", "");
+        assertEquals(interpreted.execute(params, false), specialized.execute(params, false));
+        assertEquals(interpreted.bind().setParameters(params).enableXssFilter(false).execute(false),
+                specialized.bind().setParameters(params).enableXssFilter(false).execute(false));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        specialized.bind().setParameters(params).renderUtf8(bytes, false);
+        assertEquals(interpreted.execute(params, false), bytes.toString(StandardCharsets.UTF_8));
+        assertThrows(IllegalStateException.class, () -> specialized.execute(params));
+
+        //包含循环块的模板保持解释执行
+        CompiledPrompt loop = CompiledPrompt.compile("#{*r}#{v}#{*r}").specializeAfter(0);
+        assertEquals("x", loop.bind().setItems("r", List.of(Map.of("v", "x"))).execute());
+        assertEquals("", loop.bind().setParameter("r", "").execute());
+        assertFalse(loop.isSpecialized());
+
+        //开启专用渲染器不影响缓存中共享的编译结果
+        PreparedPrompt hot = PreparedPrompt.prepare("#{z}").setParameter("z", "<v>").specializeAfter(0);
+        assertEquals("&lt;v&gt;", hot.execute());
+        assertEquals("&lt;v&gt;", hot.execute());
+        assertFalse(PreparedPrompt.compile("#{z}").isSpecialized());
+        assertNotSame(interpreted, interpreted.specializeAfter(0));
+        assertFalse(interpreted.isSpecialized());
+    }
+
+    @Test
+    public void testPromptBinding() {
+        CompiledPrompt compiled = PreparedPrompt.compile("#{name}: #{text}");
+        PromptBinding first = compiled.bind().setParameter("name", "a").setParameter("text", "<1>");
+        PromptBinding second = compiled.bind().setParameter("name", "b").setParameter("text", "<2>").enableXssFilter(false);
+        assertEquals("a: &lt;1&gt;", first.execute());
+        assertEquals("b: <2>", second.execute());
+        assertArrayEquals(new String[]{"text"}, compiled.bind().setParameter("name", "c").getUnsetParameters());
+
+        //同一个模板的绑定互不影响，清除参数后绑定可以复用
+        first.clearParameters().setParameter("name", "d");
+        assertArrayEquals(new String[]{"text"}, first.getUnsetParameters());
+        assertEquals("d: #{text}", first.execute(false));
+        assertEquals("b: <2>", second.execute());
+        assertEquals("d: null", first.setParameter("text", null).execute());
+
+        //条件块按各自绑定的参数判断，空白值视为不满足
+        CompiledPrompt conditional = PreparedPrompt.compile("#{?on}[#{x}]#{?on}#{?on}(#{x})#{?on}");
+        assertEquals("[1](1)", conditional.bind().setParameter("on", "y").setParameter("x", "1").execute());
+        assertEquals("", conditional.bind().setParameter("on", " \t").execute());
+        assertEquals("", conditional.bind().setParameter("on", null).execute());
+
+        //绑定的参数可以复制到模板开启专用渲染器的副本，结果与原模板相同
+        PreparedPrompt prepared = PreparedPrompt.prepare("#{name}: #{text}").setParameter("name", "e").setParameter("text", "<3>");
+        String expected = prepared.execute();
+        prepared.specializeAfter(1);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(expected, prepared.execute());
+        }
+        assertEquals("f: &lt;3&gt;", prepared.setParameter("name", "f").execute());
+        CompiledPrompt specialized = compiled.specializeAfter(0);
+        assertEquals(compiled.slotOf("text"), specialized.slotOf("text"));
+        assertEquals("a: &lt;1&gt;", specialized.bind().set(compiled.slotOf("name"), "a")
+                .set(compiled.slotOf("text"), "<1>").execute());
+        assertFalse(compiled.isSpecialized());
+        assertTrue(specialized.isSpecialized());
+    }
+
+    @Test
+    public void testSlotBinding() {
+        CompiledPrompt compiled = PreparedPrompt.compile("#{a}#{?flag}#{b}#{?flag}#{a}");
+        assertArrayEquals(new String[]{"a", "flag", "b"}, compiled.getParameterNames());
+        assertEquals(-1, compiled.slotOf("missing"));
+
+        PromptBinding binding = compiled.bind()
+                .set(compiled.slotOf("a"), "1")
+                .set(compiled.slotOf("flag"), "on")
+                .set(compiled.slotOf("b"), "2")
+                .setParameter("extra", "x");
+        assertEquals("121", binding.execute());
+        assertEquals("x", binding.getParameters().get("extra"));
+        assertThrows(IllegalArgumentException.class, () -> binding.set(3, "v"));
+        assertThrows(IllegalArgumentException.class, () -> binding.set(-1, "v"));
+        assertThrows(IllegalArgumentException.class, () -> compiled.bind().set(Integer.MIN_VALUE, "v"));
+
+        //按名称与按槽位设置的是同一个参数，后设置的值生效
+        int a = compiled.slotOf("a");
+        assertEquals("33", compiled.bind().setParameter("a", "1").set(a, "3").execute());
+        assertEquals("44", compiled.bind().set(a, "1").setParameter("a", "4").execute());
+        assertEquals("4", compiled.bind().set(a, "1").setParameter("a", "4").getParameters().get("a"));
+
+        //按槽位设置null值同样视为已设置
+        assertEquals("nullnull", compiled.bind().set(a, null).execute());
+        assertArrayEquals(new String[0], compiled.bind().set(a, null).getUnsetParameters());
+
+        //只在条件块中出现的参数，条件不满足时不是必需的
+        PromptBinding strict = compiled.bind().set(a, "1");
+        assertEquals("11", strict.execute());
+        strict.set(compiled.slotOf("flag"), "on");
+        IllegalStateException unset = assertThrows(IllegalStateException.class, strict::execute);
+        assertEquals("存在未设置的参数: b", unset.getMessage());
+        assertArrayEquals(new String[]{"b"}, strict.getUnsetParameters());
+        assertEquals("1#{b}1", strict.execute(false));
+    }
+
+    @Test
+    public void testRender() throws IOException {
+        PreparedPrompt prompt = PreparedPrompt.prepare("#{a}-#{?flag}#{b}#{?flag}")
+                .setParameter("a", "<x>");
+
+        StringWriter writer = new StringWriter();
+        prompt.render(writer);
+        assertEquals("&lt;x&gt;-", writer.toString());
+
+        StringBuilder builder = new StringBuilder();
+        prompt.setParameter("flag", "1").render(builder, false);
+        assertEquals("&lt;x&gt;-#{b}", builder.toString());
+
+        //严格模式检查失败时不写出任何内容
+        StringBuilder strict = new StringBuilder();
+        assertThrows(IllegalStateException.class, () -> prompt.render(strict));
+        assertEquals("", strict.toString());
+    }
+
+    @Test
+    public void testRenderUtf8() throws IOException {
+        StringBuilder big = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            big.append("值😀\uD800é");
+        }
+        PreparedPrompt prompt = PreparedPrompt.prepare("前缀 #{a} 中间 #{b} 后缀")
+                .setParameter("a", big.toString())
+                .setParameter("b", "<b>");
+        byte[] expected = prompt.execute().getBytes(StandardCharsets.UTF_8);
+
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        prompt.renderUtf8(stream);
+        assertArrayEquals(expected, stream.toByteArray());
+
+        ByteBuffer buffer = ByteBuffer.allocate(expected.length);
+        assertEquals(expected.length, prompt.renderUtf8(buffer));
+        assertArrayEquals(expected, buffer.array());
+    }
+
+    @Test
+    public void testLazyParameter() {
+        AtomicInteger calls = new AtomicInteger();
+        PreparedPrompt prompt = PreparedPrompt.prepare("#{?show}#{context}|#{context|json}#{?show}")
+                .setLazyParameter("context", () -> "<c" + calls.incrementAndGet() + ">");
+
+        //条件不满足时不计算
+        assertEquals("", prompt.execute());
+        assertEquals(0, calls.get());
+
+        //同一次渲染中只计算一次，每次渲染重新计算
+        prompt.setParameter("show", "1");
+        assertEquals("&lt;c1&gt;|\\u003cc1\\u003e", prompt.execute());
+        assertEquals("&lt;c2&gt;|\\u003cc2\\u003e", prompt.execute());
+
+        //延迟参数也可以作为条件
+        AtomicInteger flagCalls = new AtomicInteger();
+        PreparedPrompt conditional = PreparedPrompt.prepare("#{?flag}#{flag}#{?flag}")
+                .setLazyParameter("flag", () -> {
+                    flagCalls.incrementAndGet();
+                    return new StringBuilder("on");
+                });
+        assertEquals("on", conditional.execute());
+        assertEquals(1, flagCalls.get());
+
+        //提供者返回null时条件不满足，严格模式下也视为已设置
+        assertEquals("", conditional.setLazyParameter("flag", () -> null).execute());
+        assertEquals("x", conditional.setLazyParameter("flag", () -> "x").getParameters().get("flag"));
+        assertEquals("", conditional.setParameter("flag", " ").execute());
+    }
+
+    @Test
+    public void testRenderAll() throws IOException {
+        PromptBinding binding = PreparedPrompt.compile("#{greeting}, #{name}!#{?vip} VIP#{?vip}").bind()
+                .setParameter("greeting", "Hi");
+        List<Map<String, String>> rows = new ArrayList<>();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            Map<String, String> row = new HashMap<>();
+            row.put("name", "u" + i);
+            if (i % 3 == 0) {
+                row.put("vip", "yes");
+            }
+            rows.add(row);
+            expected.add("Hi, u" + i + "!" + (i % 3 == 0 ? " VIP" : ""));
+        }
+
+        assertEquals(expected, binding.renderAll(rows));
+        assertEquals(expected, binding.renderAll(rows.stream(), true).collect(Collectors.toList()));
+        assertEquals(expected, binding.renderAll(rows.parallelStream(), true).collect(Collectors.toList()));
+        //顺序流在返回后被切换为并行流
+        assertEquals(expected, binding.renderAll(rows.stream(), true).parallel().collect(Collectors.toList()));
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            assertEquals(expected, binding.renderAllParallel(rows, pool, true));
+            assertThrows(IllegalArgumentException.class, () -> binding.renderAllParallel(null, pool, true));
+            StringBuilder out = new StringBuilder();
+            binding.renderAllParallel(rows, pool, out, "\n", true);
+            assertEquals(String.join("\n", expected), out.toString());
+        } finally {
+            pool.shutdown();
+        }
+
+        StringBuilder out = new StringBuilder();
+        binding.renderAll(rows.subList(0, 2), out, "|", true);
+        assertEquals("Hi, u0! VIP|Hi, u1!", out.toString());
+
+        //行中的参数覆盖绑定中的参数，缺少参数的行在严格模式下失败
+        Map<String, String> override = new HashMap<>();
+        override.put("greeting", "Yo");
+        override.put("name", "x");
+        assertEquals("Yo, x!", binding.renderAll(List.of(override)).get(0));
+        assertThrows(IllegalStateException.class, () -> binding.renderAll(List.of(new HashMap<>())));
+        assertEquals("Hi, #{name}!", binding.renderAll(List.of(new HashMap<>()), false).get(0));
+    }
+
+    @Test
+    public void testRenderAllStreamLeavesNoThreadState() throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            //并行流结束后，工作线程中不应残留渲染器及其引用的参数
+            WeakReference<Supplier<String>> supplier = renderParallelStream(pool);
+            for (int i = 0; i < 50 && supplier.get() != null; i++) {
+                System.gc();
+                Thread.sleep(10);
+            }
+            assertNull(supplier.get());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static WeakReference<Supplier<String>> renderParallelStream(ForkJoinPool pool) throws Exception {
+        String value = new String("v");
+        Supplier<String> supplier = () -> value;
+        PromptBinding binding = PreparedPrompt.compile("#{name}=#{lazy}").bind().setLazyParameter("lazy", supplier);
+        List<Map<String, String>> rows = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            rows.add(Map.of("name", "u" + i));
+        }
+        List<String> results = pool.submit(() -> binding.renderAll(rows.parallelStream(), true)
+                .collect(Collectors.toList())).get();
+        assertEquals("u999=v", results.get(999));
+        return new WeakReference<>(supplier);
+    }
+
+    @Test
+    public void testExecuteWithin() throws IOException {
+        PreparedPrompt prompt = PreparedPrompt.prepare("[#{system}] #{context} | #{history|json} | #{question}")
+                .setParameter("system", "S")
+                .setParameter("context", "c".repeat(50))
+                .setParameter("history", "\"h\"".repeat(20))
+                .setParameter("question", "Q?")
+                .truncatable("history", 0)
+                .truncatable("context", 1);
+        String full = prompt.execute();
+        assertEquals(full, prompt.executeWithin(full.length()));
+
+        //先截断优先级低的参数，转义序列不会被拆开
+        String result = prompt.executeWithin(full.length() - 30);
+        assertEquals("[S] " + "c".repeat(50) + " | " + "\\\"h\\\"".repeat(14) + " | Q?", result);
+        assertTrue(result.length() <= full.length() - 30);
+
+        //不足时继续截断下一个参数
+        assertEquals("[S] cc |  | Q?", prompt.executeWithin(14));
+        assertThrows(IllegalStateException.class, () -> prompt.executeWithin(5));
+
+        //按UTF-8字节计算预算
+        PreparedPrompt utf8 = PreparedPrompt.prepare("标题: #{body}").setParameter("body", "正文😀内容").truncatable("body", 0);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        utf8.renderUtf8Within(out, 16, true);
+        assertEquals("标题: 正文", out.toString(StandardCharsets.UTF_8));
+        out.reset();
+        utf8.renderUtf8Within(out, 20, true);
+        assertEquals("标题: 正文😀", out.toString(StandardCharsets.UTF_8));
+
+        //循环块按每个元素转义后的长度计入预算
+        PromptBinding loop = PreparedPrompt.compile("#{*items}<#{name}>#{*items}|#{tail}").bind()
+                .setItems("items", List.of(Map.of("name", "a&b"), Map.of("name", "😀")))
+                .setParameter("tail", "t".repeat(20))
+                .truncatable("tail", 0);
+        assertEquals("<a&amp;b><😀>|" + "t".repeat(20), loop.execute());
+        assertEquals("<a&amp;b><😀>|" + "t".repeat(6), loop.executeWithin(20));
+        assertThrows(IllegalStateException.class, () -> loop.executeWithin(13));
+        out.reset();
+        loop.renderUtf8Within(out, 20, true);
+        assertEquals("<a&amp;b><😀>|" + "t".repeat(4), out.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testExecuteNested() {
+        String result = PreparedPrompt.prepare("最终信息: #{full_message}")
+                .setParameter("full_message", "来自 #{source} 的消息: #{message}")
+                .setParameter("source", "系统")
+                .setParameter("message", "一切正常")
+                .executeNested();
+        assertEquals("最终信息: 来自 系统 的消息: 一切正常", result);
+    }
+
+    @Test
+    public void testExecuteNestedChain() {
+        //依赖链很深时每个参数只解析一次，也不会栈溢出
+        PreparedPrompt prompt = PreparedPrompt.prepare("#{p0}").enableXssFilter(false);
+        int depth = 5000;
+        for (int i = 0; i < depth; i++) {
+            prompt.setParameter("p" + i, "<#{p" + (i + 1) + "}");
+        }
+        prompt.setParameter("p" + depth, "end");
+        assertEquals("<".repeat(depth) + "end", prompt.executeNested());
+
+        //条件使用解析后的参数值
+        PreparedPrompt conditional = PreparedPrompt.prepare("#{?a}A#{?a}")
+                .setParameter("a", "#{b}")
+                .setParameter("b", " ");
+        assertEquals("", conditional.executeNested());
+    }
+
+    @Test
+    public void testExecuteNestedCycle() {
+        PreparedPrompt prompt = PreparedPrompt.prepare("#{a}")
+                .setParameter("a", "x#{b}")
+                .setParameter("b", "y#{c}")
+                .setParameter("c", "z#{a}");
+        IllegalStateException e = assertThrows(IllegalStateException.class, prompt::executeNested);
+        assertEquals("参数存在循环引用: a -> b -> c -> a", e.getMessage());
+    }
+
+    @Test
+    public void testPromptCache() {
+        PromptCache cache = new PromptCache(16, 1024);
+        CompiledPrompt first = cache.get("#{a}");
+        assertSame(first, cache.get("#{a}"));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        //超出条目数上限时淘汰最久未使用的模板
+        for (int i = 0; i < 100; i++) {
+            cache.get("#{a}" + i);
+        }
+        assertTrue(cache.size() <= 16);
+        assertTrue(cache.getEvictionCount() > 0);
+
+        //超出字符数上限的模板不进入缓存
+        String large = "x".repeat(2048);
+        assertNotSame(cache.get(large), cache.get(large));
+
+        assertSame(PreparedPrompt.compile("#{shared}"), PreparedPrompt.compile("#{shared}"));
+    }
+
+    @Test
+    public void testRenderMetrics() throws IOException {
+        RenderMetrics metrics = new RenderMetrics(2);
+        PreparedPrompt prompt = PreparedPrompt.prepare("指标: #{a}|#{a|json}").setParameter("a", "<x>")
+                .setRenderListener(metrics);
+        String result = prompt.execute();
+        prompt.renderUtf8(new ByteArrayOutputStream());
+        assertThrows(IllegalStateException.class, () -> PreparedPrompt.prepare("指标: #{a}|#{a|json}")
+                .setRenderListener(metrics).execute());
+
+        //输出大小按字符统计，按UTF-8字节输出时也是如此
+        RenderMetrics.TemplateMetrics stats = metrics.get("指标: #{a}|#{a|json}");
+        assertEquals(2, stats.getRenderCount());
+        assertEquals(2, stats.getOutputLength().getCount());
+        assertEquals(result.length(), stats.getOutputLength().getMax());
+        assertTrue(stats.getOutputLength().getValueAtPercentile(50) <= result.length());
+        assertTrue(stats.getTotalRenderNanos() >= stats.getTotalEscapeNanos());
+        assertEquals(stats.getLatency().getMax(), stats.getLatency().getValueAtPercentile(100));
+
+        //监听器只属于设置它的实例，全局缓存中的编译结果不受影响
+        assertNull(PreparedPrompt.compile("指标: #{a}|#{a|json}").getRenderListener());
+        PreparedPrompt.prepare("指标: #{a}|#{a|json}").setParameter("a", "y").execute();
+        assertEquals(2, stats.getRenderCount());
+
+        //缓存编译的全部模板通知缓存的监听器，超出模板数量上限的模板不再统计
+        PromptCache cache = new PromptCache(16, 1024, metrics);
+        cache.get("b").bind().execute();
+        cache.get("c").bind().execute();
+        assertSame(metrics, cache.get("c").getRenderListener());
+        assertEquals(Set.of("指标: #{a}|#{a|json}", "b"), metrics.getTemplates());
+        assertEquals(1, metrics.getDroppedCount());
+
+        //监听器抛出的异常不影响已经完成的渲染
+        CompiledPrompt failing = PreparedPrompt.compile("#{a}").withRenderListener((compiled, renderNanos, escapeNanos, length) -> {
+            throw new IllegalStateException("监听器失败");
+        });
+        StringBuilder out = new StringBuilder();
+        failing.bind().setParameter("a", "x").render(out);
+        assertEquals("x", out.toString());
+        assertEquals("x", failing.specializeAfter(0).bind().setParameter("a", "x").execute());
+        assertNotNull(failing.specializeAfter(0).getRenderListener());
+        assertNull(failing.withRenderListener(null).getRenderListener());
+    }
+
+    @Test
+    public void testEscapeCache() {
+        EscapeCache cache = new EscapeCache(PromptEscaper.HTML, 16, 1024);
+        PreparedPrompt prompt = PreparedPrompt.prepare("#{name}|#{name|json}|#{title}")
+                .setEscapeCache(cache)
+                .setParameter("name", "<b>")
+                .setParameter("title", "t");
+        String expected = PreparedPrompt.prepare("#{name}|#{name|json}|#{title}")
+                .setParameter("name", "<b>")
+                .setParameter("title", "t")
+                .execute();
+        assertEquals(expected, prompt.execute());
+        assertEquals(expected, prompt.execute());
+        //无需转义的值不查询缓存
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(0.5, cache.getHitRate());
+        assertEquals(1, cache.size());
+
+        //关闭XSS过滤时不使用缓存
+        assertEquals("<b>|\\u003cb\\u003e|t", prompt.enableXssFilter(false).execute());
+        assertEquals(2, cache.getHitCount() + cache.getMissCount());
+
+        //超出上限时淘汰，超过一段字符数上限的值不进入缓存
+        for (int i = 0; i < 100; i++) {
+            cache.escape("<v" + i);
+        }
+        assertTrue(cache.size() <= 16);
+        assertTrue(cache.getEvictionCount() > 0);
+        cache.clear();
+        cache.escape("<".repeat(1024));
+        assertEquals(0, cache.size());
+        assertThrows(IllegalArgumentException.class,
+                () -> prompt.setEscapeCache(new EscapeCache(PromptEscaper.JSON, 16, 1024)));
+    }
+
+}
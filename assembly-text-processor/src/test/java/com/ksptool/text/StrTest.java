@@ -0,0 +1,246 @@
+package com.ksptool.text;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class StrTest {
+
+
+    private static final String[] DATE_FORMATS = {"yyyy-MM-dd", "yyyy-MM-dd HH:mm:ss", "HH:mm:ss", "dd/MM/yyyy"};
+
+    @Test
+    public void testDateTimeMatchesFormatter() {
+        List<String> inputs = new ArrayList<>(List.of(
+                //SMART解析把超出当月天数的29至31日取为当月最后一天
+                "2023-02-29", "2023-02-30", "2024-02-30", "2023-04-31", "2023-02-30 12:00:00",
+                //公元0年、负数年份与超过4位的年份
+                "0000-01-01", "0001-01-01", "-0001-01-01", "+20240-01-01", "20240-01-01", "9999-12-31 23:59:59",
+                //超出范围的字段
+                "2023-13-01", "2023-00-10", "2023-01-32", "2023-01-00", "24:00:00", "23:60:00", "23:59:60",
+                "2023-01-01 24:00:00", "00:00:00", "23:59:59",
+                //非ASCII数字与其他形状
+                "２０２３-01-01", "2023-0١-01", "1２:00:00", "2023-01-01T00:00:00", "2023-01-01  0:00:00",
+                "2023-1-1", "12:0:00", "2023-01-01 ", " 2023-01-01", "2023/01/01", "01/02/2023", "2023-01-01 00:00"));
+        Random random = new Random(24);
+        String alphabet = "0123456789-: +T１";
+        for (int i = 0; i < 600; i++) {
+            char[] chars = (i % 3 == 0 ? String.format("%04d-%02d-%02d", random.nextInt(10001), random.nextInt(14), random.nextInt(33))
+                    : i % 3 == 1 ? String.format("%04d-%02d-%02d %02d:%02d:%02d", random.nextInt(10001), random.nextInt(14),
+                    random.nextInt(33), random.nextInt(26), random.nextInt(61), random.nextInt(61))
+                    : String.format("%02d:%02d:%02d", random.nextInt(26), random.nextInt(61), random.nextInt(61))).toCharArray();
+            if (random.nextInt(4) == 0) {
+                chars[random.nextInt(chars.length)] = alphabet.charAt(random.nextInt(alphabet.length()));
+            }
+            inputs.add(new String(chars));
+        }
+
+        LocalDate defaultDate = LocalDate.of(1970, 1, 1);
+        LocalDateTime defaultDateTime = LocalDateTime.of(1970, 1, 1, 0, 0);
+        LocalTime defaultTime = LocalTime.MIDNIGHT;
+        for (String input : inputs) {
+            for (String format : DATE_FORMATS) {
+                DateTimeFormatter formatter = DateTimeFormatter.ofPattern(format);
+                String message = input + " | " + format;
+
+                String date = outcome(s -> LocalDate.parse(s, formatter), input);
+                assertEquals(date, outcome(s -> Str.parseLocalDate(s, format), input), message);
+                assertEquals(!date.startsWith("!"), Str.isDate(input, format), message);
+                assertEquals(date.startsWith("!") ? defaultDate.toString() : date,
+                        Str.toLocalDate(input, format, defaultDate).toString(), message);
+
+                String dateTime = outcome(s -> LocalDateTime.parse(s, formatter), input);
+                assertEquals(dateTime, outcome(s -> Str.parseLocalDateTime(s, format), input), message);
+                assertEquals(!dateTime.startsWith("!"), Str.isDateTime(input, format), message);
+                assertEquals(dateTime.startsWith("!") ? defaultDateTime.toString() : dateTime,
+                        Str.toLocalDateTime(input, format, defaultDateTime).toString(), message);
+
+                String time = outcome(s -> LocalTime.parse(s, formatter), input);
+                assertEquals(time, outcome(s -> Str.parseLocalTime(s, format), input), message);
+                assertEquals(!time.startsWith("!"), Str.isTime(input, format), message);
+                assertEquals(time.startsWith("!") ? defaultTime.toString() : time,
+                        Str.toLocalTime(input, format, defaultTime).toString(), message);
+            }
+        }
+
+        assertEquals(LocalDate.of(2023, 2, 28), Str.parseLocalDate("2023-02-30"));
+        assertEquals(LocalDate.of(2024, 2, 29), Str.parseLocalDate("2024-02-31"));
+        assertEquals(LocalDateTime.of(2023, 4, 30, 8, 5, 9), Str.parseLocalDateTime("2023-04-31 08:05:09"));
+        assertEquals(LocalTime.of(23, 59, 59), Str.parseLocalTime("23:59:59"));
+    }
+
+    @Test
+    public void testDateTimeEdgeCases() {
+        //SMART解析把小月的31日取为当月最后一天，32日仍然非法
+        assertEquals(LocalDate.of(2023, 4, 30), Str.parseLocalDate("2023-04-31"));
+        assertEquals(LocalDate.of(2023, 2, 28), Str.parseLocalDate("2023-02-31"));
+        assertEquals(LocalDateTime.of(2023, 11, 30, 23, 59, 59), Str.parseLocalDateTime("2023-11-31 23:59:59"));
+        assertEquals(LocalDate.of(2023, 12, 31), Str.toLocalDate("2023-12-31", "yyyy-MM-dd", null));
+        assertThrows(DateTimeException.class, () -> Str.parseLocalDate("2023-01-32"));
+        assertFalse(Str.isDate("2023-04-32", "yyyy-MM-dd"));
+
+        //闰日
+        assertEquals(LocalDate.of(2024, 2, 29), Str.parseLocalDate("2024-02-29"));
+        assertEquals(LocalDate.of(2000, 2, 29), Str.parseLocalDate("2000-02-29"));
+        assertEquals(LocalDate.of(1900, 2, 28), Str.parseLocalDate("1900-02-29"));
+        assertEquals(LocalDate.of(2023, 2, 28), Str.parseLocalDate("2023-02-29"));
+        assertEquals(LocalDate.of(2024, 2, 29), Str.toLocalDate("29/02/2024", "dd/MM/yyyy", null));
+
+        //自定义格式超过格式化器缓存的上限后仍然按各自的格式解析
+        for (int i = 0; i < 300; i++) {
+            String format = "'" + i + "'yyyyMMdd";
+            assertEquals(LocalDate.of(2024, 2, 29), Str.parseLocalDate(i + "20240229", format), format);
+        }
+        assertEquals(LocalDate.of(2024, 3, 1), Str.parseLocalDate("020240301", "'0'yyyyMMdd"));
+        assertThrows(DateTimeException.class, () -> Str.parseLocalDate("20240229", "'299'yyyyMMdd"));
+    }
+
+    @Test
+    public void testNumbersMatchJdk() {
+        List<String> inputs = new ArrayList<>(List.of(
+                //整数边界与溢出
+                "2147483647", "2147483648", "-2147483648", "-2147483649", "+2147483647",
+                "9223372036854775807", "9223372036854775808", "-9223372036854775808", "-9223372036854775809",
+                "+9223372036854775807", "99999999999999999999", "-", "+", "+-1", "--1", "0", "-0", "007",
+                "32767", "32768", "-32768", "-32769", "127", "128", "-128", "-129",
+                //非ASCII数字
+                "１２３", "-٣", "1٢3", "１.５",
+                //十六进制浮点数
+                "0x1p1", "0X1P-1", "0x.8p1", "0x1.p1", "0x.p1", "0x1", "0x1p", "0xAp0D", "0x1p1f", "-0x1.fffffffffffffp1023",
+                "0x１p1",
+                //后缀
+                "1d", "1D", "1f", "1F", "1.f", ".5d", "1e5f", "1dd", "1fd", "1l", "NaNd", "Infinityf",
+                //首尾空白
+                " 1", "1 ", "\t1.5\n", " -2 ", "\u00011\u0001", "\u00a01", "1\u2003",
+                //NaN与Infinity
+                "NaN", "-NaN", "+NaN", "nan", "Infinity", "-Infinity", "+Infinity", "infinity", "Infinit", "NaN1",
+                //指数与小数点
+                "1e", "1e+", "1e-5", "1E+400", "1e-400", ".", ".5", "5.", "-.5e1", "1.2.3", "e5", "1_000", "#1"));
+        String[] tokens = {"0", "1", "9", "-", "+", ".", "e", "E", "x", "X", "p", "f", "d", "D", "a", "N", "NaN",
+                "Infinity", " ", "\t", "０", "٣", "0x", "2147483648", "9223372036854775807", "9223372036854775808",
+                "32768", "128", "1e400", "#"};
+        Random random = new Random(25);
+        for (int i = 0; i < 2000; i++) {
+            StringBuilder input = new StringBuilder();
+            int count = 1 + random.nextInt(5);
+            for (int j = 0; j < count; j++) {
+                input.append(tokens[random.nextInt(tokens.length)]);
+            }
+            inputs.add(input.toString());
+        }
+
+        for (String input : inputs) {
+            String integer = outcome(Integer::valueOf, input);
+            String longValue = outcome(Long::valueOf, input);
+            String doubleValue = outcome(Double::valueOf, input);
+            String floatValue = outcome(Float::valueOf, input);
+            String shortValue = outcome(Short::valueOf, input);
+            String byteValue = outcome(Byte::valueOf, input);
+
+            assertEquals(!integer.startsWith("!"), Str.isInteger(input), input);
+            assertEquals(!longValue.startsWith("!"), Str.isLong(input), input);
+            assertEquals(!doubleValue.startsWith("!"), Str.isDouble(input), input);
+            assertEquals(integer.startsWith("!"), Str.isNotInteger(input), input);
+            assertEquals(longValue.startsWith("!"), Str.isNotLong(input), input);
+            assertEquals(doubleValue.startsWith("!"), Str.isNotDouble(input), input);
+
+            assertEquals(integer.startsWith("!") ? "null" : integer, String.valueOf(Str.toInteger(input, null)), input);
+            assertEquals(longValue.startsWith("!") ? "null" : longValue, String.valueOf(Str.toLong(input, null)), input);
+            assertEquals(doubleValue.startsWith("!") ? "null" : doubleValue, String.valueOf(Str.toDouble(input, null)), input);
+            assertEquals(floatValue.startsWith("!") ? "null" : floatValue, String.valueOf(Str.toFloat(input, null)), input);
+            assertEquals(shortValue.startsWith("!") ? "null" : shortValue, String.valueOf(Str.toShort(input, null)), input);
+            assertEquals(byteValue.startsWith("!") ? "null" : byteValue, String.valueOf(Str.toByte(input, null)), input);
+
+            //抛出异常的解析方法保持JDK的行为
+            assertEquals(longValue, outcome(Str::parseLong, input), input);
+            assertEquals(doubleValue, outcome(Str::parseDouble, input), input);
+        }
+
+        assertEquals(Long.MIN_VALUE, Str.toLong("-9223372036854775808", 0L));
+        assertEquals(Long.MAX_VALUE, Str.toLong("9223372036854775807", 0L));
+        assertEquals(-1L, Str.toLong("9223372036854775808", -1L));
+        assertEquals(Integer.MIN_VALUE, Str.toInteger("-2147483648", 0));
+        assertEquals(-1, Str.toInteger("2147483648", -1));
+        assertEquals(4.0, Str.toDouble("0x1p2", 0.0));
+        assertEquals(1.5, Str.toDouble(" 1.5d ", 0.0));
+        assertEquals(Double.NaN, Str.toDouble("-NaN", 0.0));
+        assertEquals(Float.NEGATIVE_INFINITY, Str.toFloat("-Infinity", 0f));
+        assertEquals(123, Str.toInteger("１２３", 0));
+    }
+
+    @Test
+    public void testNumberEdgeCases() {
+        //十六进制浮点数必须带p指数
+        assertEquals(2.0, Str.toDouble("0x1p1", null));
+        assertEquals(0.0625, Str.toDouble("0x.8p-3", null));
+        assertEquals(1.0f, Str.toFloat("0X1.P0f", null));
+        assertEquals(null, Str.toDouble("0x1", null));
+        assertEquals(null, Str.toDouble("0x.p1", null));
+        assertFalse(Str.isDouble("0x1p"));
+
+        //只有符号或指数不完整
+        for (String input : new String[]{"+", "-", "1e", "1e+", ".", "e1"}) {
+            assertFalse(Str.isDouble(input), input);
+            assertFalse(Str.isInteger(input), input);
+            assertFalse(Str.isLong(input), input);
+            assertNull(Str.toDouble(input, null), input);
+            assertNull(Str.toLong(input, null), input);
+        }
+
+        //NaN与Infinity区分大小写，不接受类型后缀
+        assertTrue(Double.isNaN(Str.toDouble("NaN", null)));
+        assertEquals(Double.POSITIVE_INFINITY, Str.toDouble("+Infinity", null));
+        assertEquals(Float.NEGATIVE_INFINITY, Str.toFloat(" -Infinity ", null));
+        assertNull(Str.toDouble("nan", null));
+        assertNull(Str.toDouble("NaNd", null));
+        assertNull(Str.toDouble("Infinityf", null));
+        assertFalse(Str.isInteger("NaN"));
+
+        //长整数边界
+        assertEquals(Long.MIN_VALUE, Str.toLong("-9223372036854775808", null));
+        assertEquals(Long.MAX_VALUE, Str.toLong("+9223372036854775807", null));
+        assertNull(Str.toLong("-9223372036854775809", null));
+        assertNull(Str.toLong("9223372036854775808", null));
+        assertTrue(Str.isLong("-9223372036854775808"));
+        assertFalse(Str.isInteger("-9223372036854775808"));
+
+        //短整数与字节刚好超出范围
+        assertEquals((short) 32767, Str.toShort("32767", null));
+        assertEquals((short) -32768, Str.toShort("-32768", null));
+        assertNull(Str.toShort("32768", null));
+        assertNull(Str.toShort("-32769", null));
+        assertEquals((byte) 127, Str.toByte("127", null));
+        assertEquals((byte) -128, Str.toByte("-128", null));
+        assertNull(Str.toByte("128", null));
+        assertNull(Str.toByte("-129", null));
+        assertEquals((byte) 7, Str.toByte("x", (byte) 7));
+        assertNull(Str.toInteger("2147483648", null));
+    }
+
+    /**
+     * 解析结果的字符串形式，失败时为 "!" 加异常类型
+     */
+    private static String outcome(Function<String, Object> parser, String input) {
+        try {
+            return String.valueOf(parser.apply(input));
+        } catch (DateTimeException | IllegalArgumentException e) {
+            //NumberFormatException是IllegalArgumentException的子类
+            return "!" + e.getClass().getName();
+        }
+    }
+
+}